@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.io.Resources;
+
+/**
+ * Policy sets shared by the benchmarks. A policy is either the name of one of the
+ * bundled test policies (e.g. "netiq") or "synthetic-N" for a generated policy
+ * with N conditions.
+ */
+public final class BenchmarkPolicies {
+
+    private static final String SYNTHETIC_PREFIX = "synthetic-";
+
+    private static final String[] SEVERITIES = { "Critical", "Major", "Minor", "Warning", "Normal" };
+
+    private static final String[] VARBIND_PATTERNS = {
+            "<*.host> is down",
+            "^<@.iface> link <[up|down].state>$",
+            "Threshold <#.value> exceeded on <*>",
+            "<[TeamQuest|Measureware].service>",
+            "opener <4*.stuff> closer",
+            "Link entered high load."
+    };
+
+    private BenchmarkPolicies() {
+    }
+
+    /**
+     * Creates a temporary policy root containing the given policy.
+     */
+    public static File createPolicyRoot(String policy) throws IOException {
+        final File policyRoot = Files.createTempDirectory("omi-benchmark").toFile();
+        final File policyFile = new File(policyRoot, policy + "_data");
+        if (policy.startsWith(SYNTHETIC_PREFIX)) {
+            writeSyntheticPolicy(policyFile, Integer.parseInt(policy.substring(SYNTHETIC_PREFIX.length())));
+        } else {
+            try (InputStream is = Resources.getResource(policy + "_test_policy_data").openStream()) {
+                Files.copy(is, policyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return policyRoot;
+    }
+
+    public static void deletePolicyRoot(File policyRoot) throws IOException {
+        if (policyRoot != null) {
+            MoreFiles.deleteRecursively(policyRoot.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+        }
+    }
+
+    /**
+     * Writes a single SNMP policy with the given number of message conditions, spread
+     * over 100 enterprises and using a mix of the varbind patterns seen in real policies.
+     */
+    public static void writeSyntheticPolicy(File policyFile, int conditions) throws IOException {
+        try (Writer w = Files.newBufferedWriter(policyFile.toPath(), StandardCharsets.UTF_8)) {
+            w.write("SYNTAX_VERSION 7\n\n\n");
+            w.write("SNMP \"Synthetic " + conditions + "\"\n");
+            w.write("        DESCRIPTION \"Synthetic policy with " + conditions + " conditions\"\n");
+            w.write("        SEVERITY Unknown\n");
+            w.write("        MSGCONDITIONS\n");
+            for (int i = 0; i < conditions; i++) {
+                final int enterprise = i % 100;
+                w.write("                DESCRIPTION \"Synthetic_" + i + "\"\n");
+                w.write("                CONDITION_ID \"" + Integer.toHexString(i) + "\"\n");
+                w.write("                CONDITION\n");
+                w.write("                        $e \".1.3.6.1.4.1.99999." + enterprise + "\"\n");
+                w.write("                        $G 6\n");
+                w.write("                        $S " + (i / 100 + 1) + "\n");
+                if (i % 3 != 0) {
+                    w.write("                        $" + (i % 8 + 1) + " \"" + VARBIND_PATTERNS[i % VARBIND_PATTERNS.length] + "\"\n");
+                }
+                w.write("                SET\n");
+                w.write("                        SEVERITY " + SEVERITIES[i % SEVERITIES.length] + "\n");
+                w.write("                        NODE IP 0.0.0.0  \"<$2>\"\n");
+                w.write("                        APPLICATION \"Synthetic\"\n");
+                w.write("                        MSGGRP \"Benchmark\"\n");
+                w.write("                        TEXT \"Synthetic trap " + i + " from <$2>: <$1>\"\n");
+                w.write("                        MSGKEY \"synthetic:" + i + ":<$2>\"\n");
+                w.write("                        HELPTEXT \"EVENT NAME: Synthetic_" + i + "\n\nNOTIFICATION: ops@example.com\"\n");
+            }
+        }
+    }
+}
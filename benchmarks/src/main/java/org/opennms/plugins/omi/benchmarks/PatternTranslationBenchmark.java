@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.plugins.omi.DefaultOmiDefinitionProvider;
+import org.opennms.plugins.omi.OmiEventConfExtension;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link OmiEventConfExtension#translateOmiPatternToRegex(String)}, bypassing
+ * the memoization in front of it. One operation translates every distinct varbind
+ * pattern of the policy once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatternTranslationBenchmark {
+
+    @Param({"emc", "netiq", "teamquest", "tandberg", "recoverpoint", "netapp"})
+    public String policy;
+
+    private String[] patterns;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final File policyRoot = BenchmarkPolicies.createPolicyRoot(policy);
+        final Set<String> distinctPatterns = new LinkedHashSet<>();
+        try {
+            for (OmiTrapDef trapDef : new DefaultOmiDefinitionProvider(policyRoot, "").getTrapDefs()) {
+                for (VarbindConstraint vbc : trapDef.getVarbindConstraints()) {
+                    distinctPatterns.addAll(vbc.getValueExpressions());
+                }
+            }
+        } finally {
+            BenchmarkPolicies.deletePolicyRoot(policyRoot);
+        }
+        patterns = distinctPatterns.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void translatePatterns(Blackhole blackhole) {
+        for (String pattern : patterns) {
+            blackhole.consume(OmiEventConfExtension.translateOmiPatternToRegex(pattern));
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import org.opennms.plugins.nnmi.TrapLogReplayer.Trap;
+import org.opennms.plugins.nnmi.TrapLogReplayer.TrapVarbind;
+
+/**
+ * Reads the traps from an NNMi trap log by memory-mapping the file and scanning it line by line.
+ * Lines are dispatched on their first byte and split on their fixed separators without using
+ * regexes, and only the lines we keep something from are copied out of the mapped region.
+ *
+ * The lines are split the same way the greedy patterns "Trap (.+) \((.+)\) at (.+) from (.+)"
+ * and "state=(.+) type=(.+) oid=(.+) value=(.+)" would split them. The file is read as UTF-8.
+ *
+ * Everything but the varbind values is decoded through a {@link Utf8StringCache}, so the OIDs,
+ * types, names and hosts that repeat throughout a log share their strings. With
+ * {@link #streamReusedTraps(Consumer)}, the trap and varbind objects are recycled as well.
+ */
+public class MappedTrapLogReader {
+
+    // Regions are remapped at line boundaries, so a line may not be longer than a region
+    private static final int DEFAULT_REGION_SIZE = 1 << 30;
+
+    private static final int STRING_CACHE_SIZE = 4096;
+
+    private static final byte[] TRAP_PREFIX = ascii("Trap ");
+    private static final byte[][] TRAP_SEPARATORS = { ascii(" ("), ascii(") at "), ascii(" from ") };
+    private static final byte[] VERSION_PREFIX = ascii("Version: ");
+    private static final byte[] STATE_PREFIX = ascii("state=");
+    private static final byte[][] STATE_SEPARATORS = { ascii(" type="), ascii(" oid="), ascii(" value=") };
+    private static final byte[] ENTERPRISE_OID_PREFIX = ascii("Enterprise OID: ");
+    private static final byte[] AGENT_ADDRESS_PREFIX = ascii("Agent address: ");
+
+    private final File trapLogFile;
+    private final int regionSize;
+
+    // The line being parsed, and the start and end of each of its groups
+    private byte[] line = new byte[512];
+    private final int[] groupBounds = new int[8];
+
+    private final Utf8StringCache strings = new Utf8StringCache(STRING_CACHE_SIZE);
+
+    private Trap trapInProgress;
+
+    // Set while streaming reused traps
+    private Trap reusedTrap;
+    private final List<TrapVarbind> reusedVarbinds = new ArrayList<>();
+    private int reusedVarbindCount;
+
+    public MappedTrapLogReader(File trapLogFile) {
+        this(trapLogFile, DEFAULT_REGION_SIZE);
+    }
+
+    MappedTrapLogReader(File trapLogFile, int regionSize) {
+        this.trapLogFile = Objects.requireNonNull(trapLogFile);
+        this.regionSize = regionSize;
+    }
+
+    public void streamTraps(Consumer<Trap> trapConsumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(trapLogFile.toPath(), StandardOpenOption.READ)) {
+            streamTraps(channel, 0, channel.size(), trapConsumer);
+        }
+    }
+
+    /**
+     * Like {@link #streamTraps(Consumer)}, but hands the same trap object, with the same varbind
+     * objects, to the consumer every time, refilled with the next trap. The trap is only valid until
+     * the consumer returns, so this is for consumers that process one trap at a time and keep
+     * nothing of it but its strings.
+     */
+    public void streamReusedTraps(Consumer<Trap> trapConsumer) throws IOException {
+        reusedTrap = new Trap();
+        try {
+            streamTraps(trapConsumer);
+        } finally {
+            reusedTrap = null;
+            reusedVarbinds.clear();
+        }
+    }
+
+    /**
+     * Streams the traps recorded in [start, end) of the channel. The range should start at
+     * the beginning of a line; lines before the first trap line are ignored.
+     */
+    void streamTraps(FileChannel channel, long start, long end, Consumer<Trap> trapConsumer) throws IOException {
+        trapInProgress = null;
+        scanLines(channel, start, end, (region, regionStart, lineStart, lineEnd) -> {
+            handleLine(region, lineStart, lineEnd, trapConsumer);
+            return !Thread.interrupted();
+        });
+
+        if (trapInProgress != null) {
+            // We're all done, push what we have
+            trapConsumer.accept(trapInProgress);
+            trapInProgress = null;
+        }
+    }
+
+    /**
+     * Returns the offset of the first trap line that starts at or after the given offset, or
+     * end if there is none before it.
+     */
+    long findTrapLine(FileChannel channel, long from, long end) throws IOException {
+        final long[] found = { end };
+        // Start one byte early and skip the first, partial, line, so that a trap line starting
+        // right at the given offset is still seen as a line of its own
+        final boolean[] partialLine = { from > 0 };
+        scanLines(channel, Math.max(from - 1, 0), end, (region, regionStart, lineStart, lineEnd) -> {
+            if (partialLine[0]) {
+                partialLine[0] = false;
+                return true;
+            }
+            if (isTrapLine(region, lineStart, lineEnd)) {
+                found[0] = regionStart + lineStart;
+                return false;
+            }
+            return true;
+        });
+        return found[0];
+    }
+
+    @FunctionalInterface
+    private interface LineHandler {
+        /**
+         * @return false to stop scanning
+         */
+        boolean handleLine(MappedByteBuffer region, long regionStart, int lineStart, int lineEnd);
+    }
+
+    // Maps [start, end) of the channel region by region, and hands each line to the handler
+    private void scanLines(FileChannel channel, long start, long end, LineHandler handler) throws IOException {
+        long regionStart = start;
+        while (regionStart < end) {
+            final int length = (int)Math.min(regionSize, end - regionStart);
+            final boolean lastRegion = regionStart + length == end;
+            final MappedByteBuffer region = channel.map(MapMode.READ_ONLY, regionStart, length);
+
+            int lineStart = 0;
+            int i = 0;
+            while (i < length) {
+                final byte b = region.get(i);
+                if (b != '\n' && b != '\r') {
+                    i++;
+                    continue;
+                }
+                final boolean proceed = handler.handleLine(region, regionStart, lineStart, i);
+                // A "\r\n" split across two regions leaves an empty line, which is ignored anyway
+                if (b == '\r' && i + 1 < length && region.get(i + 1) == '\n') {
+                    i++;
+                }
+                lineStart = ++i;
+                if (!proceed) {
+                    return;
+                }
+            }
+
+            if (lastRegion) {
+                if (lineStart < length) {
+                    // Last line, without a line terminator
+                    handler.handleLine(region, regionStart, lineStart, length);
+                }
+                return;
+            } else if (lineStart == 0) {
+                throw new IOException(String.format("Line at offset %d of %s is longer than %d bytes.",
+                        regionStart, trapLogFile, regionSize));
+            }
+            regionStart += lineStart;
+        }
+    }
+
+    private boolean isTrapLine(MappedByteBuffer region, int start, int end) {
+        final int length = end - start;
+        if (length <= TRAP_PREFIX.length || region.get(start) != 'T') {
+            return false;
+        }
+        copyLine(region, start, length);
+        return startsWith(length, TRAP_PREFIX) && splitGroups(length, TRAP_PREFIX.length, TRAP_SEPARATORS);
+    }
+
+    private void handleLine(MappedByteBuffer region, int start, int end, Consumer<Trap> trapConsumer) {
+        final int length = end - start;
+        if (length == 0) {
+            return;
+        }
+        switch (region.get(start)) {
+            case 'T':
+                if (!isTrapLine(region, start, end)) {
+                    return;
+                }
+                if (trapInProgress != null) {
+                    // We've hit a new trap, push the previous one
+                    trapConsumer.accept(trapInProgress);
+                }
+                trapInProgress = nextTrap();
+                trapInProgress.setName(cachedGroup(0));
+                trapInProgress.setTrapTypeOid(cachedGroup(1));
+                trapInProgress.setReceivedAt(cachedGroup(2));
+                trapInProgress.setReceivedFrom(cachedGroup(3));
+                return;
+            case 'V':
+                if (trapInProgress != null) {
+                    copyLine(region, start, length);
+                    if (startsWith(length, VERSION_PREFIX) && length > VERSION_PREFIX.length) {
+                        trapInProgress.setVersion(cachedRest(length, VERSION_PREFIX));
+                    }
+                }
+                return;
+            case 's':
+                if (trapInProgress != null) {
+                    copyLine(region, start, length);
+                    if (startsWith(length, STATE_PREFIX) && splitGroups(length, STATE_PREFIX.length, STATE_SEPARATORS)) {
+                        final TrapVarbind varbind = nextVarbind();
+                        varbind.setState(cachedGroup(0));
+                        varbind.setType(cachedGroup(1));
+                        varbind.setOid(cachedGroup(2));
+                        varbind.setValue(group(3));
+                        trapInProgress.getVarbinds().add(varbind);
+                    }
+                }
+                return;
+            case 'E':
+                if (trapInProgress != null) {
+                    copyLine(region, start, length);
+                    if (startsWith(length, ENTERPRISE_OID_PREFIX) && length > ENTERPRISE_OID_PREFIX.length) {
+                        trapInProgress.setEnterpriseOid(cachedRest(length, ENTERPRISE_OID_PREFIX));
+                    }
+                }
+                return;
+            case 'A':
+                if (trapInProgress != null) {
+                    copyLine(region, start, length);
+                    if (startsWith(length, AGENT_ADDRESS_PREFIX) && length > AGENT_ADDRESS_PREFIX.length) {
+                        trapInProgress.setAgentAddress(cachedRest(length, AGENT_ADDRESS_PREFIX));
+                    }
+                }
+                return;
+            default:
+                // Nothing we keep
+        }
+    }
+
+    private Trap nextTrap() {
+        if (reusedTrap == null) {
+            return new Trap();
+        }
+        reusedTrap.reset();
+        reusedVarbindCount = 0;
+        return reusedTrap;
+    }
+
+    private TrapVarbind nextVarbind() {
+        if (reusedTrap == null) {
+            return new TrapVarbind();
+        }
+        if (reusedVarbindCount == reusedVarbinds.size()) {
+            reusedVarbinds.add(new TrapVarbind());
+        }
+        return reusedVarbinds.get(reusedVarbindCount++);
+    }
+
+    private void copyLine(MappedByteBuffer region, int start, int length) {
+        if (line.length < length) {
+            line = new byte[Math.max(length, line.length * 2)];
+        }
+        region.position(start);
+        region.get(line, 0, length);
+    }
+
+    private boolean startsWith(int length, byte[] prefix) {
+        return length >= prefix.length && regionMatches(0, prefix);
+    }
+
+    private boolean regionMatches(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (line[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean splitGroups(int length, int from, byte[][] separators) {
+        return splitGroups(length, separators, 0, from);
+    }
+
+    // Splits line[groupStart, length) into non-empty groups at the given separators
+    private boolean splitGroups(int length, byte[][] separators, int index, int groupStart) {
+        groupBounds[2 * index] = groupStart;
+        if (index == separators.length) {
+            groupBounds[2 * index + 1] = length;
+            return length > groupStart;
+        }
+        final byte[] separator = separators[index];
+        // Like a greedy (.+), prefer the last separator that lets the remaining groups match
+        for (int pos = length - separator.length; pos > groupStart; pos--) {
+            if (regionMatches(pos, separator) && splitGroups(length, separators, index + 1, pos + separator.length)) {
+                groupBounds[2 * index + 1] = pos;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String group(int index) {
+        final int start = groupBounds[2 * index];
+        return new String(line, start, groupBounds[2 * index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    private String cachedGroup(int index) {
+        final int start = groupBounds[2 * index];
+        return strings.get(line, start, groupBounds[2 * index + 1] - start);
+    }
+
+    private String cachedRest(int length, byte[] prefix) {
+        return strings.get(line, prefix.length, length - prefix.length);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.opennms.plugins.nnmi.TrapLogReplayer.Trap;
+
+/**
+ * Reads the traps from an NNMi trap log on several threads. The file is split into chunks
+ * that start on a trap line, and each chunk is parsed on a fork/join pool by its own
+ * {@link MappedTrapLogReader}.
+ *
+ * The traps are always handed to the consumer on the calling thread, chunk by chunk, either
+ * in the order they appear in the log or in the order the chunks finish parsing. Only a few
+ * chunks per thread are parsed ahead of the consumer.
+ */
+public class ParallelTrapLogReader {
+
+    private static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final File trapLogFile;
+    private final int parallelism;
+    private final long chunkSize;
+
+    public ParallelTrapLogReader(File trapLogFile, int parallelism) {
+        this(trapLogFile, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelTrapLogReader(File trapLogFile, int parallelism, long chunkSize) {
+        this.trapLogFile = Objects.requireNonNull(trapLogFile);
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("parallelism and chunk size must be positive");
+        }
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param ordered true to hand the traps over in the order they appear in the log,
+     *                false to hand them over as soon as their chunk is parsed
+     */
+    public void streamTraps(Consumer<Trap> trapConsumer, boolean ordered) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel channel = FileChannel.open(trapLogFile.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final MappedTrapLogReader boundaryReader = new MappedTrapLogReader(trapLogFile);
+            final CompletionService<List<Trap>> completionService = new ExecutorCompletionService<>(pool);
+            final Deque<Future<List<Trap>>> inFlight = new ArrayDeque<>();
+
+            long chunkStart = 0;
+            while (chunkStart < size || !inFlight.isEmpty()) {
+                while (chunkStart < size && inFlight.size() < parallelism * 2) {
+                    final long chunkEnd = boundaryReader.findTrapLine(channel, Math.min(chunkStart + chunkSize, size), size);
+                    final Callable<List<Trap>> parseChunk = parseChunk(channel, chunkStart, chunkEnd);
+                    inFlight.add(ordered ? pool.submit(parseChunk) : completionService.submit(parseChunk));
+                    chunkStart = chunkEnd;
+                }
+
+                final Future<List<Trap>> parsed;
+                if (ordered) {
+                    parsed = inFlight.remove();
+                } else {
+                    parsed = completionService.take();
+                    inFlight.remove(parsed);
+                }
+                parsed.get().forEach(trapConsumer);
+
+                if (Thread.interrupted()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Failed to parse " + trapLogFile, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Callable<List<Trap>> parseChunk(FileChannel channel, long start, long end) {
+        return () -> {
+            final List<Trap> traps = new ArrayList<>();
+            new MappedTrapLogReader(trapLogFile).streamTraps(channel, start, end, traps::add);
+            return traps;
+        };
+    }
+}
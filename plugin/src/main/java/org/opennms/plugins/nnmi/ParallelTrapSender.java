@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Sends trap PDUs to a target from several senders in parallel, each with its own
+ * {@link Snmp} instance and UDP transport mapping. PDUs are handed to the senders in batches
+ * and can be throttled to a target rate.
+ */
+public class ParallelTrapSender implements AutoCloseable {
+
+    private static final Batch POISON_PILL = new Batch(new ArrayList<>(), 0);
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final Target target;
+    private final int batchSize;
+    private final RateLimiter rateLimiter;
+    private final BlockingQueue<Batch> batches;
+    private final List<Thread> workers = new ArrayList<>();
+    private final List<Snmp> senders = new ArrayList<>();
+
+    private List<PDU> currentBatch;
+    private boolean closed = false;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * @param concurrency number of senders
+     * @param batchSize number of PDUs handed to a sender at once
+     * @param trapsPerSecond target rate, or 0 to send as fast as possible
+     */
+    public ParallelTrapSender(Target target, int concurrency, int batchSize, double trapsPerSecond) throws IOException {
+        Objects.requireNonNull(target);
+        if (concurrency < 1 || batchSize < 1 || trapsPerSecond < 0) {
+            throw new IllegalArgumentException("concurrency and batch size must be positive, and the rate must not be negative");
+        }
+        this.target = target;
+        this.batchSize = batchSize;
+        this.rateLimiter = trapsPerSecond > 0 ? RateLimiter.create(trapsPerSecond) : null;
+        // Enough to keep every sender busy without buffering much of the log
+        this.batches = new ArrayBlockingQueue<>(concurrency * 2);
+        this.currentBatch = new ArrayList<>(batchSize);
+
+        for (int i = 0; i < concurrency; i++) {
+            final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping();
+            transport.listen();
+            final Snmp snmp = new Snmp(transport);
+            senders.add(snmp);
+            final Thread worker = new Thread(() -> sendBatches(snmp), "omi-replay-sender-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues the PDU for sending, blocking when the senders are behind or when sending it
+     * now would exceed the target rate.
+     */
+    public void send(PDU pdu) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Sender is closed.");
+        }
+        currentBatch.add(pdu);
+        if (currentBatch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the PDUs queued so far to the senders.
+     */
+    public void flush() throws InterruptedException {
+        if (currentBatch.isEmpty()) {
+            return;
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquire(currentBatch.size());
+        }
+        batches.put(new Batch(currentBatch, System.nanoTime()));
+        currentBatch = new ArrayList<>(batchSize);
+    }
+
+    private void sendBatches(Snmp snmp) {
+        try {
+            while (true) {
+                final Batch batch = batches.take();
+                if (batch == POISON_PILL) {
+                    return;
+                }
+                for (PDU pdu : batch.pdus) {
+                    try {
+                        snmp.send(pdu, target);
+                        sent.increment();
+                    } catch (IOException | RuntimeException e) {
+                        // Keep the worker alive, or the queue fills up and blocks the producer for good
+                        failed.increment();
+                    }
+                    final long latency = System.nanoTime() - batch.queuedAt;
+                    latencyNanos.add(latency);
+                    maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends whatever is still queued, then shuts the senders down. If interrupted, the senders
+     * are stopped without waiting for them, and the interrupt flag is restored.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closed = true;
+            try {
+                for (int i = 0; i < workers.size(); i++) {
+                    if (!batches.offer(POISON_PILL, CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                }
+                for (Thread worker : workers) {
+                    worker.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // Stops the workers that are still busy or waiting
+                for (Thread worker : workers) {
+                    worker.interrupt();
+                }
+                for (Snmp snmp : senders) {
+                    snmp.close();
+                }
+            }
+        }
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the mean time between a PDU being handed to the senders and its send completing, in milliseconds
+     */
+    public double getMeanLatencyMs() {
+        final long count = sent.sum() + failed.sum();
+        return count == 0 ? 0 : latencyNanos.sum() / (double)count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxLatencyMs() {
+        return maxLatencyNanos.get() / (double)TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static class Batch {
+        private final List<PDU> pdus;
+        private final long queuedAt;
+
+        private Batch(List<PDU> pdus, long queuedAt) {
+            this.pdus = pdus;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
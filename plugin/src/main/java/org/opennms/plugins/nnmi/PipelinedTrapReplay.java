@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.opennms.plugins.nnmi.TrapLogReplayer.Trap;
+import org.snmp4j.PDU;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OctetString;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Replays an NNMi trap log in three stages that each run on a thread of their own: parsing the
+ * log, building the PDUs and encoding them into SNMPv2c messages, and sending the messages over
+ * UDP. The stages are connected by bounded {@link SpscRingBuffer}s, so they overlap and the
+ * slowest one sets the pace: the queue in front of it stays full, the one behind it near empty.
+ *
+ * A stage waiting for its input or for room in its output spins for a bit before it starts to park.
+ */
+public class PipelinedTrapReplay {
+
+    private static final int SPINS_BEFORE_PARKING = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final TrapLogReplayer trapLogReplayer;
+    private final SocketAddress target;
+    private final OctetString community;
+    private final RateLimiter rateLimiter;
+
+    private final SpscRingBuffer<Trap> traps;
+    private final SpscRingBuffer<Packet> packets;
+
+    private final Stage parseStage;
+    private final Stage encodeStage;
+    private final Stage sendStage;
+
+    private int parseThreads = 1;
+    private TrapReplayScheduler scheduler;
+    private Consumer<Trap> trapListener;
+
+    private volatile boolean aborted = false;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile long failed = 0;
+
+    /**
+     * @param queueCapacity the number of traps each queue between two stages holds
+     * @param trapsPerSecond target rate, or 0 to send as fast as possible
+     */
+    public PipelinedTrapReplay(TrapLogReplayer trapLogReplayer, SocketAddress target, OctetString community, int queueCapacity, double trapsPerSecond) {
+        this.trapLogReplayer = Objects.requireNonNull(trapLogReplayer);
+        this.target = Objects.requireNonNull(target);
+        this.community = Objects.requireNonNull(community);
+        if (trapsPerSecond < 0) {
+            throw new IllegalArgumentException("the rate must not be negative");
+        }
+        this.rateLimiter = trapsPerSecond > 0 ? RateLimiter.create(trapsPerSecond) : null;
+        traps = new SpscRingBuffer<>(queueCapacity);
+        packets = new SpscRingBuffer<>(queueCapacity);
+        parseStage = new Stage("parse", null);
+        encodeStage = new Stage("encode", traps);
+        sendStage = new Stage("send", packets);
+    }
+
+    /**
+     * @param parseThreads the number of threads parsing the log, see {@link TrapLogReplayer#streamTraps(Consumer, int, boolean)}
+     */
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * Reproduces the original gaps between the traps in the send stage.
+     */
+    public void setScheduler(TrapReplayScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Is handed every trap in the encode stage, on its thread, before its PDU is built.
+     */
+    public void setTrapListener(Consumer<Trap> trapListener) {
+        this.trapListener = trapListener;
+    }
+
+    /**
+     * Replays the log, parsing it on the calling thread. Returns once every trap was sent, or
+     * throws the first failure of any stage, after stopping the others.
+     */
+    public void run() throws IOException, InterruptedException {
+        final Thread encoder = startStage(encodeStage, this::encode, packets);
+        final Thread sender = startStage(sendStage, this::send, null);
+        parseStage.start();
+        try {
+            trapLogReplayer.streamTraps(trap -> {
+                if (!put(traps, trap)) {
+                    throw new ReplayAbortedException();
+                }
+                parseStage.processed++;
+            }, parseThreads, true);
+        } catch (ReplayAbortedException e) {
+            // Another stage failed, or we were interrupted
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            parseStage.finish();
+            traps.close();
+        }
+
+        // Wait for the other stages with the interrupt flag cleared, and wake them up if we were interrupted
+        final boolean interrupted = Thread.interrupted();
+        if (interrupted) {
+            aborted = true;
+        }
+        if (aborted) {
+            encoder.interrupt();
+            sender.interrupt();
+        }
+        Uninterruptibles.joinUninterruptibly(encoder);
+        Uninterruptibles.joinUninterruptibly(sender);
+
+        final Throwable t = failure.get();
+        if (t == null) {
+            if (interrupted) {
+                throw new InterruptedException("Replay of the trap log was interrupted.");
+            }
+            return;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (t instanceof IOException) {
+            throw (IOException)t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException)t;
+        } else {
+            throw new IOException("Replay of the trap log failed.", t);
+        }
+    }
+
+    private void encode() throws IOException {
+        final ByteArrayOutputStream message = new ByteArrayOutputStream(1024);
+        int requestId = 0;
+        Trap trap;
+        while ((trap = take(traps)) != null) {
+            if (trapListener != null) {
+                trapListener.accept(trap);
+            }
+            final PDU pdu = trapLogReplayer.toPdu(trap);
+            pdu.setRequestID(new Integer32(++requestId));
+            message.reset();
+            TrapCorpus.encodeMessage(pdu, community, message);
+            if (!put(packets, new Packet(trap, message.toByteArray()))) {
+                return;
+            }
+            encodeStage.processed++;
+        }
+    }
+
+    private void send() throws IOException, InterruptedException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            Packet packet;
+            while ((packet = take(packets)) != null) {
+                if (scheduler != null) {
+                    scheduler.awaitScheduledTime(packet.trap);
+                }
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                try {
+                    channel.send(ByteBuffer.wrap(packet.message), target);
+                    sendStage.processed++;
+                } catch (IOException e) {
+                    failed++;
+                }
+            }
+        }
+    }
+
+    private Thread startStage(Stage stage, StageTask task, SpscRingBuffer<?> output) {
+        final Thread thread = new Thread(() -> {
+            stage.start();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // Once aborted, whatever the stage runs into while being stopped is not the cause
+                if (!aborted) {
+                    fail(t);
+                }
+            } finally {
+                stage.finish();
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }, "omi-replay-" + stage.getName());
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void fail(Throwable t) {
+        failure.compareAndSet(null, t);
+        aborted = true;
+    }
+
+    // Returns false if the replay was aborted while waiting for room in the queue
+    private <E> boolean put(SpscRingBuffer<E> queue, E element) {
+        int attempts = 0;
+        while (!queue.offer(element)) {
+            if (aborted || Thread.currentThread().isInterrupted()) {
+                aborted = true;
+                return false;
+            }
+            idle(attempts++);
+        }
+        return true;
+    }
+
+    // Returns null once the queue is drained, or the replay was aborted
+    private <E> E take(SpscRingBuffer<E> queue) {
+        int attempts = 0;
+        E element;
+        while ((element = queue.poll()) == null) {
+            if (aborted || queue.isDrained()) {
+                return null;
+            }
+            idle(attempts++);
+        }
+        return element;
+    }
+
+    private static void idle(int attempts) {
+        if (attempts < SPINS_BEFORE_PARKING) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * @return the parse, encode and send stages, in that order
+     */
+    public List<Stage> getStages() {
+        return Arrays.asList(parseStage, encodeStage, sendStage);
+    }
+
+    public long getSent() {
+        return sendStage.getProcessed();
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * The progress of a stage. The counters are only written by the stage's own thread, and can be
+     * read from any thread while the replay runs.
+     */
+    public static class Stage {
+        private final String name;
+        private final SpscRingBuffer<?> input;
+
+        private volatile long processed = 0;
+        private volatile long startedAt = 0;
+        private volatile long finishedAt = 0;
+
+        private Stage(String name, SpscRingBuffer<?> input) {
+            this.name = name;
+            this.input = input;
+        }
+
+        private void start() {
+            startedAt = System.nanoTime();
+        }
+
+        private void finish() {
+            finishedAt = System.nanoTime();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of traps the stage handed on
+         */
+        public long getProcessed() {
+            return processed;
+        }
+
+        /**
+         * @return the traps handed on per second since the stage started, until it finished
+         */
+        public double getThroughput() {
+            final long started = startedAt;
+            if (started == 0) {
+                return 0;
+            }
+            final long finished = finishedAt;
+            final long elapsedNanos = (finished != 0 ? finished : System.nanoTime()) - started;
+            return processed / Math.max(elapsedNanos / (double)TimeUnit.SECONDS.toNanos(1), 0.001);
+        }
+
+        /**
+         * @return the number of traps waiting for the stage, 0 for the parse stage
+         */
+        public int getQueueDepth() {
+            return input != null ? input.size() : 0;
+        }
+
+        public int getQueueCapacity() {
+            return input != null ? input.capacity() : 0;
+        }
+
+        @Override
+        public String toString() {
+            if (input == null) {
+                return String.format("%s: %d traps, %.1f traps/s", name, processed, getThroughput());
+            }
+            return String.format("%s: %d traps, %.1f traps/s, queue %d/%d", name, processed, getThroughput(), getQueueDepth(), getQueueCapacity());
+        }
+    }
+
+    // Unwinds out of the trap log reader, which would otherwise only stop on an interrupt
+    private static class ReplayAbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @FunctionalInterface
+    private interface StageTask {
+        void run() throws Exception;
+    }
+
+    private static class Packet {
+        private final Trap trap;
+        private final byte[] message;
+
+        private Packet(Trap trap, byte[] message) {
+            this.trap = trap;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue for exactly one producer and one consumer thread. The producer
+ * only writes the tail and the consumer only writes the head, each with an ordered store, and
+ * each side keeps a cached copy of the other's index so it only reads the shared one when the
+ * queue looks full or empty.
+ *
+ * The producer closes the queue after its last element; the consumer is done once the queue is
+ * closed and empty.
+ */
+final class SpscRingBuffer<E> {
+
+    private final Object[] elements;
+    private final int mask;
+
+    // The index of the next element to poll, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // The index of the next element to offer, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    private long producerCachedHead = 0;
+    private long consumerCachedTail = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity the number of elements the queue holds, rounded up to a power of two
+     */
+    SpscRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        elements = new Object[size];
+        mask = elements.length - 1;
+    }
+
+    /**
+     * Called by the producer; returns false if the queue is full.
+     */
+    boolean offer(E element) {
+        final long t = tail.get();
+        if (t - producerCachedHead >= elements.length) {
+            producerCachedHead = head.get();
+            if (t - producerCachedHead >= elements.length) {
+                return false;
+            }
+        }
+        elements[(int)t & mask] = element;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer; returns null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        final long h = head.get();
+        if (h >= consumerCachedTail) {
+            consumerCachedTail = tail.get();
+            if (h >= consumerCachedTail) {
+                return null;
+            }
+        }
+        final int index = (int)h & mask;
+        final E element = (E)elements[index];
+        elements[index] = null;
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    /**
+     * Called by the producer once it offered its last element.
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * True once the producer closed the queue and the consumer took every element.
+     */
+    boolean isDrained() {
+        // Read the flag first, so an element offered before closing is seen by the check below
+        return closed && head.get() == tail.get();
+    }
+
+    /**
+     * The number of elements in the queue, as seen from any thread at some point during the call.
+     */
+    int size() {
+        final long h = head.get();
+        return (int)Math.max(0, Math.min(tail.get() - h, elements.length));
+    }
+
+    int capacity() {
+        return elements.length;
+    }
+}
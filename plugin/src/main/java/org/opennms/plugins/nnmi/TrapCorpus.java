@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.snmp4j.PDU;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OctetString;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * A corpus of SNMPv2c trap packets, BER-encoded ahead of time from an NNMi trap log, so that
+ * the same traps can be replayed over and over without parsing the log or building PDUs.
+ *
+ * The file starts with a magic number and a format version, followed by records that each
+ * start with a tag byte: a packet is its length followed by the encoded message, and a host
+ * is its name followed by the length and bytes of its address. The hosts are the
+ * hostname to address map gathered by {@link TrapLogReplayer} and come after the packets.
+ */
+public class TrapCorpus {
+
+    private static final int MAGIC = 0x4f4d4943; // OMIC
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte PACKET_RECORD = 1;
+    private static final byte HOST_RECORD = 2;
+
+    // Larger than any UDP payload
+    private static final int MAX_PACKET_LENGTH = 65535;
+
+    /**
+     * Encodes the traps in the replayer's log and writes them to the corpus file.
+     *
+     * @return the number of traps written
+     */
+    public static long export(TrapLogReplayer trapLogReplayer, File corpusFile, OctetString community, int parseThreads) throws IOException {
+        final AtomicLong numTraps = new AtomicLong();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(corpusFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            final ByteArrayOutputStream message = new ByteArrayOutputStream(1024);
+            try {
+                trapLogReplayer.streamPdus((trap, pdu) -> {
+                    pdu.setRequestID(new Integer32((int)numTraps.incrementAndGet()));
+                    message.reset();
+                    try {
+                        encodeMessage(pdu, community, message);
+                        out.writeByte(PACKET_RECORD);
+                        out.writeInt(message.size());
+                        message.writeTo(out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, parseThreads, true);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            for (Map.Entry<String, InetAddress> host : trapLogReplayer.getHostnameToAddress().entrySet()) {
+                if (host.getValue() == null) {
+                    continue;
+                }
+                final byte[] address = host.getValue().getAddress();
+                out.writeByte(HOST_RECORD);
+                out.writeUTF(host.getKey());
+                out.writeByte(address.length);
+                out.write(address);
+            }
+        }
+        return numTraps.get();
+    }
+
+    /**
+     * Writes the PDU as a complete SNMPv2c message, as it would be sent on the wire.
+     */
+    public static void encodeMessage(PDU pdu, OctetString community, ByteArrayOutputStream out) throws IOException {
+        final Integer32 version = new Integer32(SnmpConstants.version2c);
+        final int length = version.getBERLength() + community.getBERLength() + pdu.getBERLength();
+        BER.encodeHeader(out, BER.SEQUENCE, length);
+        version.encodeBER(out);
+        community.encodeBER(out);
+        pdu.encodeBER(out);
+    }
+
+    /**
+     * Hands each packet in the corpus to the consumer. The buffer is reused between packets.
+     *
+     * @return the hostname to address map stored in the corpus
+     */
+    public static Map<String, InetAddress> streamPackets(File corpusFile, Consumer<ByteBuffer> packetConsumer) throws IOException {
+        final Map<String, InetAddress> hostnameToAddress = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(corpusFile), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(corpusFile + " is not a trap corpus.");
+            }
+            final int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported trap corpus version " + formatVersion + " in " + corpusFile);
+            }
+
+            final byte[] packet = new byte[MAX_PACKET_LENGTH];
+            final ByteBuffer packetBuffer = ByteBuffer.wrap(packet);
+            while (!Thread.interrupted()) {
+                final int tag = in.read();
+                if (tag < 0) {
+                    break;
+                } else if (tag == PACKET_RECORD) {
+                    final int length = in.readInt();
+                    if (length < 0 || length > MAX_PACKET_LENGTH) {
+                        throw new IOException("Invalid packet length " + length + " in " + corpusFile);
+                    }
+                    in.readFully(packet, 0, length);
+                    packetBuffer.clear().limit(length);
+                    packetConsumer.accept(packetBuffer);
+                } else if (tag == HOST_RECORD) {
+                    final String hostname = in.readUTF();
+                    final byte[] address = new byte[in.readUnsignedByte()];
+                    in.readFully(address);
+                    hostnameToAddress.put(hostname, InetAddress.getByAddress(address));
+                } else {
+                    throw new IOException("Invalid record " + tag + " in " + corpusFile);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated trap corpus " + corpusFile, e);
+        }
+        return hostnameToAddress;
+    }
+
+    /**
+     * Sends the packets in the corpus to the target as they are. Packets that fail to send are
+     * counted and skipped.
+     *
+     * @param trapsPerSecond target rate, or 0 to send as fast as possible
+     */
+    public static SendResult send(File corpusFile, SocketAddress target, double trapsPerSecond) throws IOException {
+        final RateLimiter rateLimiter = trapsPerSecond > 0 ? RateLimiter.create(trapsPerSecond) : null;
+        final AtomicLong numSent = new AtomicLong();
+        final AtomicLong numFailed = new AtomicLong();
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            streamPackets(corpusFile, packet -> {
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                try {
+                    channel.send(packet, target);
+                    numSent.incrementAndGet();
+                } catch (IOException e) {
+                    numFailed.incrementAndGet();
+                }
+            });
+        }
+        return new SendResult(numSent.get(), numFailed.get());
+    }
+
+    public static class SendResult {
+        private final long sent;
+        private final long failed;
+
+        private SendResult(long sent, long failed) {
+            this.sent = sent;
+            this.failed = failed;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+}
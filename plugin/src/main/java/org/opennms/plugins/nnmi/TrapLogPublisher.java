@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.opennms.plugins.nnmi.TrapLogReplayer.Trap;
+
+/**
+ * Publishes the traps in an NNMi trap log to subscribers as they request them. Every subscription
+ * reads the log from the start in a task of its own on the given executor, and parses a trap only
+ * once the subscriber asked for one, so a slow subscriber holds up the parsing instead of letting
+ * traps pile up in memory.
+ *
+ * The traps are handed to {@link Flow.Subscriber#onNext(Object)} on the parsing thread, and belong to
+ * the subscriber, which can pass them on to stages running on other threads. It bounds the number
+ * of traps in flight through the demand it signals.
+ */
+public class TrapLogPublisher implements Flow.Publisher<Trap> {
+
+    private final File trapLogFile;
+    private final Executor executor;
+
+    public TrapLogPublisher(File trapLogFile, Executor executor) {
+        this.trapLogFile = Objects.requireNonNull(trapLogFile);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Trap> subscriber) {
+        Objects.requireNonNull(subscriber);
+        final TrapSubscription subscription = new TrapSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        try {
+            executor.execute(subscription::publish);
+        } catch (RejectedExecutionException e) {
+            subscriber.onError(e);
+        }
+    }
+
+    private class TrapSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super Trap> subscriber;
+
+        // Guarded by this
+        private long demand = 0;
+        private boolean cancelled = false;
+        private Throwable error;
+
+        private TrapSubscription(Flow.Subscriber<? super Trap> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("The number of requested traps must be positive: " + n);
+            } else {
+                // Saturate, as the demand is unbounded by then anyway
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private void publish() {
+            try {
+                new MappedTrapLogReader(trapLogFile).streamTraps(trap -> {
+                    if (awaitDemand()) {
+                        subscriber.onNext(trap);
+                    } else {
+                        // The reader stops at the next line once it sees the interrupt
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                // Don't leak our interrupt into the executor
+                final boolean stopped = Thread.interrupted();
+                final Throwable failure = takeError();
+                if (failure != null) {
+                    subscriber.onError(failure);
+                } else if (!stopped && !isCancelled()) {
+                    subscriber.onComplete();
+                }
+            } catch (Throwable t) {
+                Thread.interrupted();
+                if (!isCancelled()) {
+                    subscriber.onError(t);
+                }
+            }
+        }
+
+        // Blocks until the subscriber requested another trap; returns false if it is no longer interested
+        private synchronized boolean awaitDemand() {
+            try {
+                while (demand == 0 && !cancelled && error == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                cancelled = true;
+            }
+            if (cancelled || error != null) {
+                return false;
+            }
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+            return true;
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private synchronized Throwable takeError() {
+            final Throwable failure = error;
+            error = null;
+            cancelled = cancelled || failure != null;
+            return failure;
+        }
+    }
+}
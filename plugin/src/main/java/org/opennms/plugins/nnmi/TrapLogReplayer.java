@@ -28,24 +28,23 @@
 
 package org.opennms.plugins.nnmi;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.snmp4j.PDU;
 import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.Counter32;
@@ -63,15 +62,17 @@ import com.google.common.base.Preconditions;
 import com.google.common.net.InetAddresses;
 
 public class TrapLogReplayer {
+    private static final Logger LOG = LoggerFactory.getLogger(TrapLogReplayer.class);
 
     private final File trapLogFile;
-    private Trap trapInProgress;
-    private Queue<Trap> trapsToPush = new ArrayBlockingQueue<>(100);
 
     // For generated IP address
     private InetAddress startAddress = InetAddress.getByAddress(new byte[]{10, 0, 0 , 0});
     private InetAddress lastAddress = null;
     private Map<String, InetAddress> hostnameToAddress = new LinkedHashMap<>();
+    private final Map<String, Optional<InetAddress>> agentAddresses = new HashMap<>();
+    // Addresses generated for host names in IpAddress varbinds, kept out of hostnameToAddress
+    private final Map<String, InetAddress> varbindHostAddresses = new HashMap<>();
 
     public TrapLogReplayer(File trapLogFile) throws UnknownHostException {
         Objects.requireNonNull(trapLogFile);
@@ -79,87 +80,52 @@ public class TrapLogReplayer {
     }
 
     public void streamTraps(Consumer<Trap> trapConsumer) throws IOException {
-        try (FileReader fileReader = new FileReader(this.trapLogFile);
-             BufferedReader reader = new BufferedReader(fileReader);) {
-            String line = reader.readLine();
-            while (line != null) {
-                if (Thread.interrupted()) {
-                    break;
-                }
-                handleLine(line);
-                maybePushTrap(trapConsumer);
-                line = reader.readLine();
-            }
-        }
+        new MappedTrapLogReader(trapLogFile).streamTraps(trapConsumer);
+    }
 
-        if (trapInProgress != null) {
-            // We're all done, push what we have
-            trapsToPush.add(trapInProgress);
+    /**
+     * Parses the log on the given number of threads. The traps are still handed to the consumer
+     * on the calling thread, in their original order when ordered is set.
+     */
+    public void streamTraps(Consumer<Trap> trapConsumer, int parallelism, boolean ordered) throws IOException {
+        if (parallelism > 1) {
+            new ParallelTrapLogReader(trapLogFile, parallelism).streamTraps(trapConsumer, ordered);
+        } else {
+            streamTraps(trapConsumer);
         }
-        maybePushTrap(trapConsumer);
     }
 
-    public void streamPdus(BiConsumer<Trap, PDU> pduConsumer) throws IOException {
-        streamTraps(t -> pduConsumer.accept(t, toPdu(t)));
+    /**
+     * Hands the same trap object to the consumer for every trap, see {@link MappedTrapLogReader#streamReusedTraps(Consumer)}.
+     */
+    public void streamReusedTraps(Consumer<Trap> trapConsumer) throws IOException {
+        new MappedTrapLogReader(trapLogFile).streamReusedTraps(trapConsumer);
     }
 
-    private static Pattern TRAP_LINE_PATTERN = Pattern.compile("Trap (.+) \\((.+)\\) at (.+) from (.+)$");
-    private static Pattern VERSION_LINE_PATTERN = Pattern.compile("Version: (.+)$");
-    private static Pattern STATE_LINE_PATTERN = Pattern.compile("state=(.+) type=(.+) oid=(.+) value=(.+)$");
-    private static Pattern ENTERPRISE_OID_LINE_PATTERN = Pattern.compile("Enterprise OID: (.+)$");
-    private static Pattern AGENT_ADDRESS_LINE_PATTERN = Pattern.compile("Agent address: (.+)$");
-
-    private void handleLine(String line) {
-        Matcher m = TRAP_LINE_PATTERN.matcher(line);
-        if (m.matches()) {
-            if (trapInProgress != null) {
-                // We've hit a new trap, push the previous one
-                trapsToPush.add(trapInProgress);
-            }
-            trapInProgress = new Trap();
-
-            trapInProgress.name = m.group(1);
-            trapInProgress.trapTypeOid = m.group(2);
-            trapInProgress.receivedAt = m.group(3);
-            trapInProgress.receivedFrom = m.group(4);
-            return;
-        }
-
-        m = VERSION_LINE_PATTERN.matcher(line);
-        if (m.matches()) {
-            trapInProgress.version = m.group(1);
-            return;
-        }
-
-        m = STATE_LINE_PATTERN.matcher(line);
-        if (m.matches()) {
-            TrapVarbind varbind = new TrapVarbind();
-            varbind.state = m.group(1);
-            varbind.type = m.group(2);
-            varbind.oid = m.group(3);
-            varbind.value = m.group(4);
-            trapInProgress.varbinds.add(varbind);
-            return;
-        }
-
-        m = ENTERPRISE_OID_LINE_PATTERN.matcher(line);
-        if (m.matches()) {
-            trapInProgress.enterpriseOid = m.group(1);
-            return;
-        }
+    /**
+     * Publishes the traps to subscribers as they request them, parsing the log on the given executor,
+     * see {@link TrapLogPublisher}. {@link #toPdu(Trap)} is not thread-safe, so the PDUs should all be
+     * built by the same stage.
+     */
+    public Flow.Publisher<Trap> publishTraps(Executor executor) {
+        return new TrapLogPublisher(trapLogFile, executor);
+    }
 
-        m = AGENT_ADDRESS_LINE_PATTERN.matcher(line);
-        if (m.matches()) {
-            trapInProgress.agentAddress = m.group(1);
-            return;
-        }
+    /**
+     * The trap handed to the consumer is only valid until it returns, the PDU is the consumer's to keep.
+     */
+    public void streamPdus(BiConsumer<Trap, PDU> pduConsumer) throws IOException {
+        streamReusedTraps(t -> pduConsumer.accept(t, toPdu(t)));
     }
 
-    private void maybePushTrap(Consumer<Trap> trapConsumer) {
-        Trap trap = trapsToPush.poll();
-        while(trap != null) {
-            trapConsumer.accept(trap);
-            trap = trapsToPush.poll();
+    /**
+     * The trap handed to the consumer is only valid until it returns, the PDU is the consumer's to keep.
+     */
+    public void streamPdus(BiConsumer<Trap, PDU> pduConsumer, int parallelism, boolean ordered) throws IOException {
+        if (parallelism > 1) {
+            streamTraps(t -> pduConsumer.accept(t, toPdu(t)), parallelism, ordered);
+        } else {
+            streamPdus(pduConsumer);
         }
     }
 
@@ -179,17 +145,9 @@ public class TrapLogReplayer {
         }
 
         // Include the agent address in an additional varbind
-        InetAddress agentAddress;
-        try {
-            agentAddress = InetAddress.getByName(t.getAgentAddress());
-            if (agentAddress.isLoopbackAddress()) {
-                agentAddress = null; // dont' use it - generate one instead
-            }
-            // Store the addresses for lookup
-            hostnameToAddress.putIfAbsent(t.getReceivedFrom(), agentAddress);
-        } catch (UnknownHostException e) {
-            throw new RuntimeException(e);
-        }
+        InetAddress agentAddress = resolveAgentAddress(t.getAgentAddress());
+        // Store the addresses for lookup
+        hostnameToAddress.putIfAbsent(t.getReceivedFrom(), agentAddress);
         if (agentAddress == null) {
             // None set, let's generate one
             agentAddress = getInetAddressForHost(t.getReceivedFrom());
@@ -200,28 +158,61 @@ public class TrapLogReplayer {
         return trap;
     }
 
+    /**
+     * Parses the agent address without ever calling out to a resolver, which would stall the
+     * replay on networks where the lookups fail. Returns null if the agent is not a literal
+     * address or is a loopback address, in which case an address is generated for the host.
+     */
+    private InetAddress resolveAgentAddress(String agent) {
+        if (agent == null) {
+            return null;
+        }
+        return agentAddresses.computeIfAbsent(agent, a -> {
+            if (!InetAddresses.isInetAddress(a)) {
+                return Optional.empty();
+            }
+            final InetAddress address = InetAddresses.forString(a);
+            return address.isLoopbackAddress() ? Optional.empty() : Optional.of(address);
+        }).orElse(null);
+    }
+
     private InetAddress getInetAddressForHost(String host) {
         return hostnameToAddress.computeIfAbsent(host, (k) -> {
-            InetAddress addr;
-            if (lastAddress == null) {
-                addr = startAddress;
-            } else {
-                addr = InetAddresses.increment(lastAddress);
-            }
-            System.out.printf("Assiging %s to %s.\n", addr.getHostAddress(), host);
-            lastAddress = addr;
+            final InetAddress addr = nextGeneratedAddress();
+            LOG.debug("Assigning {} to {}.", addr.getHostAddress(), host);
             return addr;
         });
     }
 
-    public static Variable toVbValue(TrapVarbind vb) {
+    /**
+     * Host names in varbind values get an address from the same pool, but aren't added to the
+     * inventory; a host that already sent traps keeps its address.
+     */
+    private InetAddress getInetAddressForVarbindHost(String host) {
+        final InetAddress address = hostnameToAddress.get(host);
+        if (address != null) {
+            return address;
+        }
+        return varbindHostAddresses.computeIfAbsent(host, (k) -> nextGeneratedAddress());
+    }
+
+    private InetAddress nextGeneratedAddress() {
+        lastAddress = lastAddress == null ? startAddress : InetAddresses.increment(lastAddress);
+        return lastAddress;
+    }
+
+    /**
+     * Never calls out to a resolver: IpAddress values that aren't literal addresses are treated as
+     * host names, and get an address from the pool used for hosts that sent traps without an agent address.
+     */
+    public Variable toVbValue(TrapVarbind vb) {
         switch(vb.getType()) {
             case "OBJECT IDENTIFIER":
                 return new OID(vb.value);
             case "TimeTicks":
                 return new TimeTicks(Long.parseLong(vb.value));
             case "IpAddress":
-                return new IpAddress(vb.value);
+                return new IpAddress(InetAddresses.isInetAddress(vb.value) ? InetAddresses.forString(vb.value) : getInetAddressForVarbindHost(vb.value));
             case "INTEGER":
                 return new Integer32(Integer.parseInt(vb.value));
             case "OCTET STRING":
@@ -247,7 +238,7 @@ public class TrapLogReplayer {
         private String agentAddress;
 
         private String version;
-        private List<TrapVarbind> varbinds = new LinkedList<>();
+        private List<TrapVarbind> varbinds = new ArrayList<>();
 
         public String getName() {
             return name;
@@ -312,6 +303,18 @@ public class TrapLogReplayer {
         public void setAgentAddress(String agentAddress) {
             this.agentAddress = agentAddress;
         }
+
+        // Clears the trap for reuse, keeping the capacity of its varbind list
+        void reset() {
+            name = null;
+            trapTypeOid = null;
+            receivedAt = null;
+            receivedFrom = null;
+            enterpriseOid = null;
+            agentAddress = null;
+            version = null;
+            varbinds.clear();
+        }
     }
 
     public static class TrapVarbind {
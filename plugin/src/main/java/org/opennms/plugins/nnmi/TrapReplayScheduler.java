@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Paces a replay so that the traps are sent with the same gaps between them as when they
+ * were received, optionally sped up. The first trap is due right away, and every other trap
+ * is due at the offset of its receivedAt timestamp from the first one, divided by the speed.
+ *
+ * The timestamps in the trap log only have a resolution of one second, so all of the traps
+ * received in the same second are due at once, which keeps bursts intact. When sending falls
+ * behind, traps are due immediately until the replay has caught up.
+ */
+public class TrapReplayScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(TrapReplayScheduler.class);
+
+    // i.e. November 19, 2018 12:00:53 AM EST
+    private static final DateTimeFormatter RECEIVED_AT_FORMAT = DateTimeFormatter.ofPattern("MMMM d, yyyy h:mm:ss a z", Locale.US);
+
+    private final double speed;
+
+    private long startNanos;
+    private long firstReceivedAtMillis;
+    private boolean started = false;
+
+    // Most consecutive traps share their timestamp, so we only parse it when it changes
+    private String lastReceivedAt;
+    private long lastOffsetNanos;
+    private boolean lastReceivedAtUnparseable = false;
+
+    /**
+     * @param speed 1 to replay in real time, 10 to replay ten times faster, ...
+     */
+    public TrapReplayScheduler(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Blocks until the trap is due.
+     */
+    public void awaitScheduledTime(TrapLogReplayer.Trap trap) throws InterruptedException {
+        long delayNanos = getDelayNanos(trap);
+        while (delayNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+            delayNanos = getDelayNanos(trap);
+        }
+    }
+
+    /**
+     * @return how long until the trap is due, 0 or less if it is due now
+     */
+    public long getDelayNanos(TrapLogReplayer.Trap trap) {
+        final long now = System.nanoTime();
+        final String receivedAt = trap.getReceivedAt();
+        if (receivedAt == null) {
+            return 0;
+        }
+        if (!receivedAt.equals(lastReceivedAt)) {
+            lastReceivedAt = receivedAt;
+            final long receivedAtMillis;
+            try {
+                receivedAtMillis = parseReceivedAt(receivedAt);
+            } catch (DateTimeParseException e) {
+                // Only warn once for the traps that share the timestamp
+                LOG.warn("Cannot parse the time trap {} was received at: {}. Sending it and the following traps with the same time right away.",
+                        trap.getName(), receivedAt);
+                lastReceivedAtUnparseable = true;
+                return 0;
+            }
+            lastReceivedAtUnparseable = false;
+            if (!started) {
+                started = true;
+                startNanos = now;
+                firstReceivedAtMillis = receivedAtMillis;
+            }
+            lastOffsetNanos = (long)(TimeUnit.MILLISECONDS.toNanos(receivedAtMillis - firstReceivedAtMillis) / speed);
+        }
+        if (lastReceivedAtUnparseable) {
+            return 0;
+        }
+        return startNanos + lastOffsetNanos - now;
+    }
+
+    public static long parseReceivedAt(String receivedAt) {
+        return ZonedDateTime.parse(receivedAt, RECEIVED_AT_FORMAT).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A small direct-mapped cache of the strings decoded from UTF-8 byte ranges. Trap logs repeat
+ * the same OIDs, types, names and hosts over and over, so most lookups find the string that
+ * was decoded the last time the same bytes came by, and neither a copy of the bytes nor a new
+ * string is allocated for them. A miss replaces whatever was in the slot.
+ */
+final class Utf8StringCache {
+
+    private static final int HASHED_SUFFIX_LENGTH = 8;
+
+    private final byte[][] keys;
+    private final String[] values;
+    private final int mask;
+
+    /**
+     * @param size the number of slots, a power of two
+     */
+    Utf8StringCache(int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two: " + size);
+        }
+        keys = new byte[size][];
+        values = new String[size];
+        mask = size - 1;
+    }
+
+    String get(byte[] bytes, int offset, int length) {
+        // Values that share a prefix, like OIDs, tend to differ at the end, so only that is hashed
+        int hash = length;
+        for (int i = Math.max(offset, offset + length - HASHED_SUFFIX_LENGTH); i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        final int slot = (hash ^ (hash >>> 16)) & mask;
+        final byte[] key = keys[slot];
+        if (key != null && equals(key, bytes, offset, length)) {
+            return values[slot];
+        }
+        final byte[] newKey = new byte[length];
+        System.arraycopy(bytes, offset, newKey, 0, length);
+        final String value = new String(newKey, StandardCharsets.UTF_8);
+        keys[slot] = newKey;
+        values[slot] = value;
+        return value;
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            if (key[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -28,22 +28,43 @@
 
 package org.opennms.plugins.omi;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.opennms.plugins.omi.cache.ParsedPolicyCache;
+import org.opennms.plugins.omi.match.TrapDefIndex;
 import org.opennms.plugins.omi.model.MyOMiPolicyVisitor;
 import org.opennms.plugins.omi.model.OmiTrapDef;
 import org.opennms.plugins.omi.policy.parser.OMiPolicyLexer;
@@ -51,43 +72,218 @@ import org.opennms.plugins.omi.policy.parser.OMiPolicyParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class DefaultOmiDefinitionProvider implements OmiDefinitionProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultOmiDefinitionProvider.class);
 
+    /**
+     * How long the watcher waits for the policy root to settle down before reloading,
+     * so that a file being copied in several writes only gets parsed once.
+     */
+    private static final long WATCH_QUIET_PERIOD_MS = 500;
+
     private final File omPolicyRoot;
     private final Set<String> omCatchAllPolicyFiles = new HashSet<>();
-    private final List<OmiTrapDef> trapDefs = new LinkedList<>();
+    private final int omPolicyParserThreads;
+    private final ParsedPolicyCache parsedPolicyCache;
+    // Keyed by file name, so that the definitions are always merged in file-name order
+    private final Map<String, PolicyFileState> policyFileStates = new TreeMap<>();
+    private final List<OmiDefinitionListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile List<OmiTrapDef> trapDefs = Collections.emptyList();
+    private volatile TrapDefIndex trapDefIndex;
+
+    private boolean watchPolicyRoot = false;
+    private WatchService watchService;
+    private Thread watchThread;
 
     public DefaultOmiDefinitionProvider(String omPolicyRoot, String omCatchAllPolicyFiles) throws IOException {
-        this(new File(Objects.requireNonNull(omPolicyRoot, "path to root is required")), Objects.requireNonNull(omCatchAllPolicyFiles, "catch-all filename is required even if empty"));
+        this(omPolicyRoot, omCatchAllPolicyFiles, 1);
+    }
+
+    public DefaultOmiDefinitionProvider(String omPolicyRoot, String omCatchAllPolicyFiles, int omPolicyParserThreads) throws IOException {
+        this(omPolicyRoot, omCatchAllPolicyFiles, omPolicyParserThreads, "");
+    }
+
+    public DefaultOmiDefinitionProvider(String omPolicyRoot, String omCatchAllPolicyFiles, int omPolicyParserThreads, String omPolicyCacheDir) throws IOException {
+        this(new File(Objects.requireNonNull(omPolicyRoot, "path to root is required")), Objects.requireNonNull(omCatchAllPolicyFiles, "catch-all filename is required even if empty"), omPolicyParserThreads,
+                Strings.isNullOrEmpty(omPolicyCacheDir) ? null : new File(omPolicyCacheDir));
     }
 
     public DefaultOmiDefinitionProvider(File omPolicyRoot, String omCatchAllPolicyFiles) throws IOException {
+        this(omPolicyRoot, omCatchAllPolicyFiles, 1);
+    }
+
+    public DefaultOmiDefinitionProvider(File omPolicyRoot, String omCatchAllPolicyFiles, int omPolicyParserThreads) throws IOException {
+        this(omPolicyRoot, omCatchAllPolicyFiles, omPolicyParserThreads, null);
+    }
+
+    /**
+     * @param omPolicyParserThreads number of threads used to parse the policy files,
+     *                              1 parses them sequentially on the calling thread and
+     *                              anything less than 1 uses one thread per available processor
+     * @param omPolicyCacheDir directory in which the parsed definitions are cached between restarts,
+     *                         or null to always parse the policy files
+     */
+    public DefaultOmiDefinitionProvider(File omPolicyRoot, String omCatchAllPolicyFiles, int omPolicyParserThreads, File omPolicyCacheDir) throws IOException {
         Objects.requireNonNull(omPolicyRoot, "root is required");
         Objects.requireNonNull(omCatchAllPolicyFiles, "catch-all policy files is required even if empty");
         this.omPolicyRoot = omPolicyRoot;
         for (String catchAllFile : omCatchAllPolicyFiles.split("\\s*,\\s*")) {
             this.omCatchAllPolicyFiles.add(catchAllFile.trim());
         }
+        this.omPolicyParserThreads = omPolicyParserThreads < 1 ? Runtime.getRuntime().availableProcessors() : omPolicyParserThreads;
+        this.parsedPolicyCache = omPolicyCacheDir == null ? null : new ParsedPolicyCache(omPolicyCacheDir, getPluginVersion());
         LOG.info("DefaultOmiDefinitionProvider initialized.");
         
         parsePolicyFiles();
     }
 
     private void parsePolicyFiles() throws IOException {
-        final List<File> policyFiles = getPolicyFilesIn(omPolicyRoot);
-        LOG.debug("Found {} policy files in {}: {}", policyFiles.size(), omPolicyRoot, policyFiles);
+        final List<String> policyFileNames = getPolicyFileNamesIn(omPolicyRoot);
+        LOG.debug("Found {} policy files in {}: {}", policyFileNames.size(), omPolicyRoot, policyFileNames);
+        refresh(policyFileNames);
+        LOG.debug("Generated {} trap definitions.", trapDefs.size());
 
-        // Parse the files
-        for (File policyFile : policyFiles) {
-            final OMiPolicyParser parser = parse(policyFile);
-            ParseTree parseTree = parser.policy();
-            MyOMiPolicyVisitor<Void> visitor = new MyOMiPolicyVisitor<>(omCatchAllPolicyFiles.contains(policyFile.getName()));
-            visitor.visit(parseTree);
-            trapDefs.addAll(visitor.getTrapDefs());
+        if (parsedPolicyCache != null) {
+            // Drop the entries for policy files that have since been changed or removed
+            synchronized (this) {
+                parsedPolicyCache.retainAll(policyFileStates.values().stream()
+                        .map(s -> s.contentHash)
+                        .collect(Collectors.toList()));
+            }
         }
-        LOG.debug("Generated {} trap definitions.", trapDefs.size());
+    }
+
+    /**
+     * Brings the cached definitions for the given policy files up to date. Files that no longer
+     * exist are dropped, and files are only re-parsed when their content actually changed.
+     *
+     * @return true if the set of definitions changed
+     */
+    private synchronized boolean refresh(Collection<String> policyFileNames) throws IOException {
+        boolean changed = false;
+        final List<File> filesToLoad = new ArrayList<>();
+        final List<PolicyFileState> previousStates = new ArrayList<>();
+        for (String policyFileName : policyFileNames) {
+            final File policyFile = new File(omPolicyRoot, policyFileName);
+            if (!policyFile.isFile()) {
+                if (policyFileStates.remove(policyFileName) != null) {
+                    LOG.info("Policy file {} was removed.", policyFile);
+                    changed = true;
+                }
+                continue;
+            }
+            filesToLoad.add(policyFile);
+            previousStates.add(policyFileStates.get(policyFileName));
+        }
+
+        final List<PolicyFileState> states = loadPolicyFiles(filesToLoad, previousStates);
+        for (int i = 0; i < states.size(); i++) {
+            final PolicyFileState previousState = previousStates.get(i);
+            final PolicyFileState state = states.get(i);
+            if (previousState == null || previousState.trapDefs != state.trapDefs) {
+                changed = true;
+            }
+            policyFileStates.put(filesToLoad.get(i).getName(), state);
+        }
+
+        if (changed) {
+            final List<OmiTrapDef> mergedTrapDefs = new ArrayList<>();
+            for (PolicyFileState state : policyFileStates.values()) {
+                mergedTrapDefs.addAll(state.trapDefs);
+            }
+            trapDefs = Collections.unmodifiableList(mergedTrapDefs);
+        }
+        return changed;
+    }
+
+    private List<PolicyFileState> loadPolicyFiles(List<File> policyFiles, List<PolicyFileState> previousStates) throws IOException {
+        final int numThreads = Math.min(omPolicyParserThreads, policyFiles.size());
+        final List<PolicyFileState> states = new ArrayList<>(policyFiles.size());
+        if (numThreads <= 1) {
+            // Parse the files
+            for (int i = 0; i < policyFiles.size(); i++) {
+                states.add(loadPolicyFile(policyFiles.get(i), previousStates.get(i)));
+            }
+            return states;
+        }
+
+        LOG.debug("Parsing {} policy files using {} threads.", policyFiles.size(), numThreads);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat("omi-policy-parser-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            // Every file gets its own lexer, parser and visitor, so the tasks share no state
+            final List<Future<PolicyFileState>> futures = new ArrayList<>(policyFiles.size());
+            for (int i = 0; i < policyFiles.size(); i++) {
+                final File policyFile = policyFiles.get(i);
+                final PolicyFileState previousState = previousStates.get(i);
+                futures.add(executor.submit(() -> loadPolicyFile(policyFile, previousState)));
+            }
+            // Gather the results in file order, regardless of which task finished first
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    states.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    throw new IOException("Failed to parse policy file " + policyFiles.get(i), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while parsing policy files in " + omPolicyRoot, e);
+                }
+            }
+            return states;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private PolicyFileState loadPolicyFile(File policyFile, PolicyFileState previousState) throws IOException {
+        final long lastModified = policyFile.lastModified();
+        final long length = policyFile.length();
+        if (previousState != null && previousState.lastModified == lastModified && previousState.length == length) {
+            return previousState;
+        }
+
+        final byte[] content = Files.readAllBytes(policyFile.toPath());
+        final HashCode contentHash = Hashing.sha256().hashBytes(content);
+        if (previousState != null && previousState.contentHash.equals(contentHash)) {
+            LOG.debug("Policy file {} was touched, but its content did not change.", policyFile);
+            return new PolicyFileState(lastModified, content.length, contentHash, previousState.trapDefs);
+        }
+
+        final boolean catchAll = omCatchAllPolicyFiles.contains(policyFile.getName());
+        if (parsedPolicyCache != null) {
+            final List<OmiTrapDef> cachedTrapDefs = parsedPolicyCache.get(contentHash);
+            if (cachedTrapDefs != null) {
+                LOG.debug("Loaded {} trap definitions for policy file {} from the cache.", cachedTrapDefs.size(), policyFile);
+                cachedTrapDefs.forEach(t -> t.setCatchAll(catchAll));
+                return new PolicyFileState(lastModified, content.length, contentHash, Collections.unmodifiableList(cachedTrapDefs));
+            }
+        }
+
+        LOG.debug("Parsing policy file {}.", policyFile);
+        final List<OmiTrapDef> trapDefs = parsePolicyFile(content, catchAll);
+        if (parsedPolicyCache != null) {
+            parsedPolicyCache.put(contentHash, trapDefs);
+        }
+        return new PolicyFileState(lastModified, content.length, contentHash, trapDefs);
+    }
+
+    private static List<OmiTrapDef> parsePolicyFile(byte[] content, boolean catchAll) throws IOException {
+        final OMiPolicyParser parser = parse(content);
+        ParseTree parseTree = parser.policy();
+        MyOMiPolicyVisitor<Void> visitor = new MyOMiPolicyVisitor<>(catchAll);
+        visitor.visit(parseTree);
+        return Collections.unmodifiableList(visitor.getTrapDefs());
     }
 
     @Override
@@ -95,19 +291,172 @@ public class DefaultOmiDefinitionProvider implements OmiDefinitionProvider {
         return trapDefs;
     }
 
-    private static List<File> getPolicyFilesIn(File sourceFolder) {
-        final String[] fileNames = sourceFolder.list((dir, name) -> name.toLowerCase().endsWith("_data"));
+    @Override
+    public TrapDefIndex getTrapDefIndex() {
+        // Built on first use after every change to the definitions
+        final List<OmiTrapDef> currentTrapDefs = trapDefs;
+        TrapDefIndex index = trapDefIndex;
+        if (index == null || index.getTrapDefs() != currentTrapDefs) {
+            index = new TrapDefIndex(currentTrapDefs);
+            trapDefIndex = index;
+        }
+        return index;
+    }
+
+    @Override
+    public void addListener(OmiDefinitionListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    @Override
+    public void removeListener(OmiDefinitionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isWatchPolicyRoot() {
+        return watchPolicyRoot;
+    }
+
+    /**
+     * When enabled, {@link #start()} watches the policy root and reloads the policy
+     * files that are added, changed or removed.
+     */
+    public void setWatchPolicyRoot(boolean watchPolicyRoot) {
+        this.watchPolicyRoot = watchPolicyRoot;
+    }
+
+    public synchronized void start() throws IOException {
+        if (!watchPolicyRoot || watchThread != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        omPolicyRoot.toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchThread = new Thread(this::watchPolicyRoot, "omi-policy-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        LOG.info("Watching {} for policy file changes.", omPolicyRoot);
+    }
+
+    public void stop() throws InterruptedException {
+        final Thread thread;
+        synchronized (this) {
+            if (watchThread == null) {
+                return;
+            }
+            thread = watchThread;
+            watchThread = null;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close the watch service for {}.", omPolicyRoot, e);
+            }
+            watchService = null;
+        }
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void watchPolicyRoot() {
+        final WatchService watcher = watchService;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.take();
+                final Set<String> changedFileNames = new TreeSet<>();
+                boolean overflowed = false;
+                // Keep draining until things settle down, so that a burst of writes triggers a single reload
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflowed = true;
+                        } else {
+                            final String fileName = ((Path)event.context()).getFileName().toString();
+                            if (isPolicyFileName(fileName)) {
+                                changedFileNames.add(fileName);
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        LOG.warn("Policy root {} is no longer accessible. No further changes will be picked up.", omPolicyRoot);
+                        return;
+                    }
+                    key = watcher.poll(WATCH_QUIET_PERIOD_MS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                if (overflowed) {
+                    // We may have missed events, so look at everything
+                    synchronized (this) {
+                        changedFileNames.addAll(policyFileStates.keySet());
+                    }
+                    changedFileNames.addAll(getPolicyFileNamesIn(omPolicyRoot));
+                }
+                if (changedFileNames.isEmpty()) {
+                    continue;
+                }
+
+                LOG.debug("Policy files changed: {}", changedFileNames);
+                try {
+                    if (refresh(changedFileNames)) {
+                        LOG.info("Reloaded policy files {}. Now providing {} trap definitions.", changedFileNames, trapDefs.size());
+                        notifyListeners();
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Failed to reload policy files {}. Will retry on the next change.", changedFileNames, e);
+                }
+            }
+        } catch (InterruptedException|ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching {}.", omPolicyRoot);
+        }
+    }
+
+    private void notifyListeners() {
+        for (OmiDefinitionListener listener : listeners) {
+            try {
+                listener.onDefinitionsChanged(this);
+            } catch (RuntimeException e) {
+                LOG.warn("Listener {} failed to handle changed definitions.", listener, e);
+            }
+        }
+    }
+
+    private static String getPluginVersion() {
+        final String version = DefaultOmiDefinitionProvider.class.getPackage().getImplementationVersion();
+        return version != null ? version : "unknown";
+    }
+
+    private static boolean isPolicyFileName(String name) {
+        return name.toLowerCase().endsWith("_data");
+    }
+
+    private static List<String> getPolicyFileNamesIn(File sourceFolder) {
+        final String[] fileNames = sourceFolder.list((dir, name) -> isPolicyFileName(name));
         if (fileNames != null) {
-            return Arrays.stream(fileNames).map(f -> new File(sourceFolder, f)).collect(Collectors.toList());
+            return Arrays.stream(fileNames).sorted().collect(Collectors.toList());
         } else {
             return Collections.emptyList();
         }
     }
 
-    private static OMiPolicyParser parse(File policyFile) throws IOException {
-        CharStream cs = CharStreams.fromFileName(policyFile.getAbsolutePath(), StandardCharsets.UTF_8);
+    private static OMiPolicyParser parse(byte[] content) throws IOException {
+        CharStream cs = CharStreams.fromStream(new ByteArrayInputStream(content), StandardCharsets.UTF_8);
         OMiPolicyLexer lexer = new OMiPolicyLexer(cs);
         CommonTokenStream tokens = new CommonTokenStream(lexer);
         return new OMiPolicyParser(tokens);
     }
+
+    private static class PolicyFileState {
+        private final long lastModified;
+        private final long length;
+        private final HashCode contentHash;
+        private final List<OmiTrapDef> trapDefs;
+
+        private PolicyFileState(long lastModified, long length, HashCode contentHash, List<OmiTrapDef> trapDefs) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.contentHash = contentHash;
+            this.trapDefs = trapDefs;
+        }
+    }
 }
@@ -30,9 +30,29 @@ package org.opennms.plugins.omi;
 
 import java.util.List;
 
+import org.opennms.plugins.omi.match.TrapDefIndex;
 import org.opennms.plugins.omi.model.OmiTrapDef;
 
 public interface OmiDefinitionProvider {
 
     List<OmiTrapDef> getTrapDefs();
+
+    /**
+     * @return an index over the current trap definitions, for looking up the candidates for a trap
+     */
+    default TrapDefIndex getTrapDefIndex() {
+        return new TrapDefIndex(getTrapDefs());
+    }
+
+    /**
+     * Registers a listener to be notified when the definitions change. Providers whose definitions
+     * never change don't need to keep track of it.
+     */
+    default void addListener(OmiDefinitionListener listener) {
+        // The definitions never change
+    }
+
+    default void removeListener(OmiDefinitionListener listener) {
+        // The definitions never change
+    }
 }
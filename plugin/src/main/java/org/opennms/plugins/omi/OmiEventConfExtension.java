@@ -28,14 +28,20 @@
 
 package org.opennms.plugins.omi;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 import org.opennms.integration.api.v1.config.events.AlarmData;
 import org.opennms.integration.api.v1.config.events.AlarmType;
@@ -50,12 +56,22 @@ import org.opennms.integration.api.v1.config.events.Parameter;
 import org.opennms.integration.api.v1.config.events.UpdateField;
 import org.opennms.integration.api.v1.config.events.Varbind;
 import org.opennms.integration.api.v1.model.Severity;
+import org.opennms.plugins.omi.analysis.RuleAnalyzer;
+import org.opennms.plugins.omi.eventconf.EventDefinitionPool;
+import org.opennms.plugins.omi.match.ConditionMerger;
+import org.opennms.plugins.omi.match.HotRuleOrdering;
+import org.opennms.plugins.omi.match.RuleHitProfile;
 import org.opennms.plugins.omi.model.MatchType;
 import org.opennms.plugins.omi.model.OmiTrapDef;
 import org.opennms.plugins.omi.model.VarbindConstraint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 public class OmiEventConfExtension implements EventConfExtension {
 
     public static final String UEI_PREFIX = "uei.opennms.org/omi/";
@@ -80,46 +96,130 @@ public class OmiEventConfExtension implements EventConfExtension {
     protected static final String TOKEN_SLASH_REGEX_EQUIVALENT = "(\\n|\\r)";
     protected static final String TOKEN_S_REGEX_EQUIVALENT = "( |\\t|\\n|\\r)";
 
-    private static final Pattern ASSIGN_ONLY_ACTION_GROUP_PATTERN = Pattern.compile("(?<!\\{1})<(\\[.+\\])(\\.[A-Za-z][A-Za-z0-9_-]+)>");
-    private static final Pattern NEGATED_ACTION_GROUP_PATTERN = Pattern.compile("(?<!\\{1})<!(\\[[^\\]]+\\])>");
-    private static final Pattern COMPLEX_ACTION_GROUP_PATTERN = Pattern.compile("(?<!\\{1})<(\\d+)?([*@#_/S])(\\.[A-Za-z][A-Za-z0-9_-]+)?>");
-    private static final Pattern INNER_GROUPING_PATTERN = Pattern.compile("(?<!\\{1})\\[([^\\]]+)(?<!\\{1})\\]");
     private static final Pattern ALPHA_LC_CHARS_PRECEDED_BY_NON_ALPHANUM = Pattern.compile("(?<=[^A-Za-z0-9]+)([a-z])");
 
+    /**
+     * Prefix of the varbind values whose translated regex failed to compile. These rules never match.
+     */
+    public static final String BROKEN_VARBIND_VALUE_PREFIX = "!!BROKEN!! ";
+
+    private static final int VARBIND_VALUE_CACHE_SIZE = 10000;
+
+    private static final LoadingCache<String, String> VARBIND_VALUE_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(VARBIND_VALUE_CACHE_SIZE)
+            .build(CacheLoader.from(OmiEventConfExtension::translateVarbindValue));
+
     private final OmiDefinitionProvider omiDefinitionProvider;
 
+    private String ruleOrderProfile;
+
+    private boolean dropRedundantRules = false;
+
+    private boolean mergeEquivalentRules = false;
+
+    private List<EventDefinition> eventDefinitions;
+
     public OmiEventConfExtension(OmiDefinitionProvider omiDefinitionProvider) {
         this.omiDefinitionProvider = Objects.requireNonNull(omiDefinitionProvider);
+        omiDefinitionProvider.addListener(this::onDefinitionsChanged);
+    }
+
+    public String getRuleOrderProfile() {
+        return ruleOrderProfile;
+    }
+
+    /**
+     * @param ruleOrderProfile a hit count profile saved with omi:stats, used to try the most
+     *                         frequently matched definitions of each tier first, or empty
+     */
+    public synchronized void setRuleOrderProfile(String ruleOrderProfile) {
+        this.ruleOrderProfile = ruleOrderProfile;
+        eventDefinitions = null;
+    }
+
+    public boolean isDropRedundantRules() {
+        return dropRedundantRules;
+    }
+
+    /**
+     * @param dropRedundantRules leave out the definitions that duplicate or are shadowed by an
+     *                           earlier one, and the ones that can never match
+     */
+    public synchronized void setDropRedundantRules(boolean dropRedundantRules) {
+        this.dropRedundantRules = dropRedundantRules;
+        eventDefinitions = null;
+    }
+
+    public boolean isMergeEquivalentRules() {
+        return mergeEquivalentRules;
+    }
+
+    /**
+     * @param mergeEquivalentRules merge the definitions that differ only in the values of a single
+     *                             varbind into one, which keeps the label and UEI of the first
+     */
+    public synchronized void setMergeEquivalentRules(boolean mergeEquivalentRules) {
+        this.mergeEquivalentRules = mergeEquivalentRules;
+        eventDefinitions = null;
+    }
+
+    private synchronized void onDefinitionsChanged(OmiDefinitionProvider provider) {
+        LOG.info("OMi trap definitions changed. Event definitions will be regenerated on the next request.");
+        eventDefinitions = null;
     }
 
     @Override
-    public List<EventDefinition> getEventDefinitions() {
+    public synchronized List<EventDefinition> getEventDefinitions() {
+        if (eventDefinitions == null) {
+            eventDefinitions = Collections.unmodifiableList(generateEventDefinitions());
+        }
+        return eventDefinitions;
+    }
+
+    private List<EventDefinition> generateEventDefinitions() {
         LOG.debug("Top of getEventDefinitions");
-        final List<EventDefinition> suppressMatchDefinitions = new ArrayList<>();
-        final List<EventDefinition> msgMatchDefinitions = new ArrayList<>();
-        final List<EventDefinition> suppressUnmatchDefinitions = new ArrayList<>();
-        final List<EventDefinition> msgUnmatchDefinitions = new ArrayList<>();
+        final List<OmiTrapDef> suppressMatchDefs = new ArrayList<>();
+        final List<OmiTrapDef> msgMatchDefs = new ArrayList<>();
+        final List<OmiTrapDef> suppressUnmatchDefs = new ArrayList<>();
+        final List<OmiTrapDef> msgUnmatchDefs = new ArrayList<>();
         
-        for (OmiTrapDef omiTrapDef : omiDefinitionProvider.getTrapDefs()) {
+        final List<OmiTrapDef> trapDefs = omiDefinitionProvider.getTrapDefs();
+        final Set<OmiTrapDef> redundantTrapDefs = dropRedundantRules ? findRedundantTrapDefs(trapDefs) : Collections.emptySet();
+        for (OmiTrapDef omiTrapDef : trapDefs) {
+            if (redundantTrapDefs.contains(omiTrapDef)) {
+                continue;
+            }
             if (omiTrapDef.getMatchType() == MatchType.SUPP_MATCH) {
-                suppressMatchDefinitions.add(toEventDefinition(omiTrapDef));
+                suppressMatchDefs.add(omiTrapDef);
             } else if (omiTrapDef.getMatchType() == MatchType.MSG_MATCH) {
-                msgMatchDefinitions.add(toEventDefinition(omiTrapDef));
+                msgMatchDefs.add(omiTrapDef);
             } else if (omiTrapDef.getMatchType() == MatchType.SUPP_UNMATCH) {
-                suppressUnmatchDefinitions.add(toEventDefinition(omiTrapDef));
+                suppressUnmatchDefs.add(omiTrapDef);
             } else if (omiTrapDef.getMatchType() == MatchType.MSG_UNMATCH) {
-                msgUnmatchDefinitions.add(toEventDefinition(omiTrapDef));
+                msgUnmatchDefs.add(omiTrapDef);
             }
         }
         
-        LOG.debug("Accumulated event counts by match-type: SUPP_MATCH={} MSG_MATCH={} SUPP_UNMATCH={} MSG_UNMATCH={}", suppressMatchDefinitions.size(), msgMatchDefinitions.size(), suppressUnmatchDefinitions.size(), msgUnmatchDefinitions.size());
+        LOG.debug("Accumulated event counts by match-type: SUPP_MATCH={} MSG_MATCH={} SUPP_UNMATCH={} MSG_UNMATCH={}", suppressMatchDefs.size(), msgMatchDefs.size(), suppressUnmatchDefs.size(), msgUnmatchDefs.size());
         
+        final RuleHitProfile profile = loadRuleOrderProfile();
         final List<EventDefinition> orderedEventDefinitions = new ArrayList<>();
-        orderedEventDefinitions.addAll(suppressMatchDefinitions);
-        orderedEventDefinitions.addAll(msgMatchDefinitions);
-        orderedEventDefinitions.addAll(suppressUnmatchDefinitions);
-        orderedEventDefinitions.addAll(msgUnmatchDefinitions);
+        final EventDefinitionPool pool = new EventDefinitionPool(OmiEventConfExtension::decorateOperInstruct);
+        int mergedCount = 0;
+        for (List<OmiTrapDef> tier : Arrays.asList(suppressMatchDefs, msgMatchDefs, suppressUnmatchDefs, msgUnmatchDefs)) {
+            List<OmiTrapDef> orderedTier = profile != null ? HotRuleOrdering.reorder(tier, profile::getHits) : tier;
+            if (mergeEquivalentRules) {
+                orderedTier = ConditionMerger.merge(orderedTier);
+                mergedCount += tier.size() - orderedTier.size();
+            }
+            for (OmiTrapDef omiTrapDef : orderedTier) {
+                orderedEventDefinitions.add(toEventDefinition(omiTrapDef, pool));
+            }
+        }
         
+        if (mergeEquivalentRules) {
+            LOG.info("Merged {} OMi trap definitions into equivalent ones.", mergedCount);
+        }
         LOG.debug("Returning {} ordered event definitions", orderedEventDefinitions.size());
         for (EventDefinition eDef : orderedEventDefinitions) {
             LOG.debug("Event: {}", eDef.getUei());
@@ -127,281 +227,133 @@ public class OmiEventConfExtension implements EventConfExtension {
         return orderedEventDefinitions;
     }
     
-    private EventDefinition toEventDefinition(OmiTrapDef omiTrapDef) {
-        final Severity severity = toOnmsSeverity(omiTrapDef.getSeverity());
-        final LogMessage logMessage = new LogMessage() {
-            @Override
-            public String getContent() {
-                if (omiTrapDef.getText() == null) {
-                    return replaceUservarPlaceholderTokens(replacePolicyvarPlaceholderTokens(omiTrapDef.getLabel()));
-                } else {
-                    return replaceUservarPlaceholderTokens(replacePolicyvarPlaceholderTokens(omiTrapDef.getText()));
-                }
-            }
-            @Override
-            public LogMsgDestType getDestination() {
-                if (omiTrapDef.isServerLogOnly()) {
-                    return LogMsgDestType.LOGONLY;
-                }
-                if (omiTrapDef.getMatchType() == MatchType.MSG_MATCH) {
-                    return LogMsgDestType.LOGNDISPLAY;
-                }
-                if (omiTrapDef.getMatchType() == MatchType.MSG_UNMATCH) {
-                    return LogMsgDestType.LOGNDISPLAY;
-                }
-                if (omiTrapDef.getMatchType() == MatchType.SUPP_MATCH) {
-                    return LogMsgDestType.DISCARDTRAPS;
-                }
-                if (omiTrapDef.getMatchType() == MatchType.SUPP_UNMATCH) {
-                    return LogMsgDestType.DISCARDTRAPS;
-                }
-                return LogMsgDestType.LOGNDISPLAY;
-            }
-        };
+    private static Set<OmiTrapDef> findRedundantTrapDefs(List<OmiTrapDef> trapDefs) {
+        final List<RuleAnalyzer.Finding> findings = RuleAnalyzer.analyze(trapDefs);
+        final Map<RuleAnalyzer.FindingType, Long> counts = findings.stream()
+                .collect(Collectors.groupingBy(RuleAnalyzer.Finding::getType, () -> new EnumMap<>(RuleAnalyzer.FindingType.class), Collectors.counting()));
+        LOG.info("Leaving out {} of {} OMi trap definitions: {}", findings.size(), trapDefs.size(), counts);
+        return RuleAnalyzer.getRedundantTrapDefs(findings);
+    }
 
+    private RuleHitProfile loadRuleOrderProfile() {
+        if (Strings.isNullOrEmpty(ruleOrderProfile)) {
+            return null;
+        }
+        try {
+            final RuleHitProfile profile = RuleHitProfile.load(new File(ruleOrderProfile));
+            LOG.info("Ordering the event definitions in each tier by the hit counts of {} rules in {}.", profile.size(), ruleOrderProfile);
+            return profile;
+        } catch (IOException e) {
+            LOG.warn("Failed to load the rule order profile {}. The event definitions will be in policy order.", ruleOrderProfile, e);
+            return null;
+        }
+    }
 
-        final List<MaskElement> maskElements = new LinkedList<>();
-        if (omiTrapDef.getEnterpriseId() != null) {
-            final MaskElement idMask = new MaskElement() {
-                @Override
-                public String getName() {
-                    return "id";
-                }
+    private EventDefinition toEventDefinition(OmiTrapDef omiTrapDef, EventDefinitionPool pool) {
+        final Severity severity = toOnmsSeverity(omiTrapDef.getSeverity());
+        // Everything is computed once here, rather than every time eventd asks for it
+        final String logMessageContent = omiTrapDef.getText() == null
+                ? replaceUservarPlaceholderTokens(replacePolicyvarPlaceholderTokens(omiTrapDef.getLabel()))
+                : replaceUservarPlaceholderTokens(replacePolicyvarPlaceholderTokens(omiTrapDef.getText()));
+        final LogMessage logMessage = pool.logMessage(logMessageContent, toLogMsgDestType(omiTrapDef));
 
-                @Override
-                public List<String> getValues() {
-                    return Collections.singletonList(omiTrapDef.getEnterpriseId());
-                }
-            };
-            maskElements.add(idMask);
+        final List<MaskElement> maskElements = new ArrayList<>(3);
+        if (omiTrapDef.getEnterpriseId() != null) {
+            maskElements.add(pool.maskElement("id", omiTrapDef.getEnterpriseId()));
         }
         if (omiTrapDef.getGeneric() != null) {
-            final MaskElement genericMask = new MaskElement() {
-                @Override
-                public String getName() {
-                    return "generic";
-                }
-
-                @Override
-                public List<String> getValues() {
-                    return Collections.singletonList(Integer.toString(omiTrapDef.getGeneric()));
-                }
-            };
-            maskElements.add(genericMask);
+            maskElements.add(pool.maskElement("generic", Integer.toString(omiTrapDef.getGeneric())));
         }
         if (omiTrapDef.getSpecific() != null) {
-            final MaskElement specificMask = new MaskElement() {
-                @Override
-                public String getName() {
-                    return "specific";
-                }
-
-                @Override
-                public List<String> getValues() {
-                    return Collections.singletonList(Integer.toString(omiTrapDef.getSpecific()));
+            maskElements.add(pool.maskElement("specific", Integer.toString(omiTrapDef.getSpecific())));
+        }
+        final List<Varbind> varbinds = new ArrayList<>(omiTrapDef.getVarbindConstraints().size());
+        for (VarbindConstraint dtoVb : omiTrapDef.getVarbindConstraints()) {
+            final List<String> vbValues = new ArrayList<>(dtoVb.getValueExpressions().size());
+            for (String inValue : dtoVb.getValueExpressions()) {
+                final String vbString = toVarbindValue(inValue);
+                if (vbString.startsWith(BROKEN_VARBIND_VALUE_PREFIX)) {
+                    LOG.warn("Varbind #{} constraint value '{}' for trap {} is not a valid regex. Including as a literal, but this rule will never match.", dtoVb.getVbOrdinal(), inValue, omiTrapDef.getLabel());
                 }
-            };
-            maskElements.add(specificMask);
-        }
-        final List<Varbind> varbinds = new ArrayList<>();
-        if (! omiTrapDef.getVarbindConstraints().isEmpty()) {
-            for (VarbindConstraint dtoVb : omiTrapDef.getVarbindConstraints()) {
-                final Varbind vb = new Varbind() {
-                    public Integer getNumber() {
-                        return dtoVb.getVbOrdinal();
-                    }
-                    public List<String> getValues() {
-                        String vbString;
-                        final List<String> vbValues = new ArrayList<>();
-                        for (String inValue : dtoVb.getValueExpressions()) {
-                            if (isGratuitouslyRegexedInteger(inValue)) {
-                                vbString = inValue.substring(1, inValue.length() - 1);
-                                LOG.debug("Varbind #{} constraint value '{}' is a gratuitously-anchored integer value. Extracting and using sans regex in eventconf vbvalue: '{}'.", dtoVb.getVbOrdinal(), inValue, vbString);
-                            } else if (isLiteralInteger(inValue)) {
-                                vbString = inValue;
-                                LOG.debug("Varbind #{} constraint value '{}' is a bare integer value. Using verbatim in eventconf vbvalue: '{}'", dtoVb.getVbOrdinal(), inValue, vbString);
-                            } else if (looksLiteral(inValue)) {
-                                LOG.debug("Varbind #{} constraint value '{}' looks literal. Skipping regex transformation and adapting as simple substring regex.");
-                                StringBuilder sb = new StringBuilder("~.*").append(inValue).append(".*");
-                                vbString = sb.toString();
-                            }
-                            else {
-                                final String candidateVbString = translateOmiPatternToRegex(inValue);
-                                try {
-                                    Pattern.compile(candidateVbString);
-                                    vbString = "~" + candidateVbString;
-                                    LOG.debug("Translated OMi pattern '{}' to regex '{}'", inValue, vbString);
-                                } catch (PatternSyntaxException pse) {
-                                    LOG.warn("Failed to compile regex '{}' for trap {}. Including as a literal, but this rule will never match.", candidateVbString, omiTrapDef.getLabel());
-                                    vbString = "!!BROKEN!! " + candidateVbString;
-                                }
-                            }
-                            vbValues.add(vbString);
-                        }
-                        return vbValues;
-                    }
-                    public String getTextualConvention() {
-                        // TODO should this be null or the empty string?
-                        return null;
-                    }
-                };
-                varbinds.add(vb);
+                vbValues.add(vbString);
             }
+            varbinds.add(pool.varbind(dtoVb.getVbOrdinal(), vbValues));
         }
-        
-        final Mask mask = maskElements.isEmpty() ? null : new Mask() {
-            @Override
-            public List<MaskElement> getMaskElements() {
-                return maskElements;
-            }
-
-            @Override
-            public List<Varbind> getVarbinds() {
-                return varbinds;
-            }
-        };
+        final Mask mask = pool.mask(maskElements, varbinds);
 
         // Use the placeholder tokens from the text as elements in the reduction key
-        // TODO: Replace with a method
-        final StringBuilder reductionKeySb = new StringBuilder();
-        reductionKeySb.append("%uei%:%dpname%:%nodeid%");
-        for (String placeholderToken : extractPlaceholderTokens(omiTrapDef.getText())) {
-            reductionKeySb.append(":");
-            reductionKeySb.append(placeholderToken);
-        }
-        final String reductionKey = reductionKeySb.toString();
+        final AlarmData alarmData = pool.alarmData(inferReductionKey(omiTrapDef));
 
-        final AlarmData alarmData = new AlarmData() {
-            @Override
-            public String getReductionKey() {
-                return reductionKey;
-            }
-
-            @Override
-            public AlarmType getType() {
-                return AlarmType.PROBLEM_WITHOUT_RESOLUTION;
-            }
-
-            @Override
-            public String getClearKey() {
-                return null;
-            }
-
-            @Override
-            public boolean isAutoClean() {
-                return false;
-            }
-
-            @Override
-            public List<UpdateField> getUpdateFields() {
-                return Collections.emptyList();
-            }
-
-            @Override
-            public ManagedObject getManagedObject() {
-                return null;
-            }
-        };
-
-        final List<Parameter> parameters = new LinkedList<>();
+        final List<Parameter> parameters = new ArrayList<>(3);
         if (omiTrapDef.getApplication() != null) {
-            final Parameter applicationParameter = new Parameter() {
-                @Override
-                public String getName() {
-                    return "Application";
-                }
-                @Override
-                public String getValue() {
-                    return replacePolicyvarPlaceholderTokens(omiTrapDef.getApplication());
-                }
-                @Override
-                public boolean shouldExpand() {
-                    return getValue().contains("%parm[");
-                }
-            };
-            parameters.add(applicationParameter);
+            final String applicationValue = replacePolicyvarPlaceholderTokens(omiTrapDef.getApplication());
+            parameters.add(pool.parameter("Application", applicationValue, applicationValue.contains("%parm[")));
         }
         if (omiTrapDef.getMsgGrp() != null) {
-            final Parameter msgGrpParameter = new Parameter() {
-                @Override
-                public String getName() {
-                    return "MsgGrp";
-                }
-                @Override
-                public String getValue() {
-                    return omiTrapDef.getMsgGrp();
-                }
-                @Override
-                public boolean shouldExpand() {
-                    return false;
-                }
-            };
-            parameters.add(msgGrpParameter);
+            parameters.add(pool.parameter("MsgGrp", omiTrapDef.getMsgGrp(), false));
         }
         if (omiTrapDef.getObject() != null) {
-            final Parameter objectParameter = new Parameter() {
-                @Override
-                public String getName() {
-                    return "Object";
-                }
-                @Override
-                public String getValue() {
-                    return replacePolicyvarPlaceholderTokens(omiTrapDef.getObject());
-                }
-                @Override
-                public boolean shouldExpand() {
-                    return true;
-                }
-            };
-            parameters.add(objectParameter);
+            parameters.add(pool.parameter("Object", replacePolicyvarPlaceholderTokens(omiTrapDef.getObject()), true));
         }
 
-        final EventDefinition def = new EventDefinition() {
-            public int getPriority() {
-                int prio = 1000;
-                if (omiTrapDef.isCatchAll()) {
-                    prio--;
-                }
-                return prio;
-            }
-
-            public String getUei() {
-                return SINGLE_SPACE_PATTERN.matcher(UEI_PREFIX + omiTrapDef.getLabel()).replaceAll("_");
-            }
-
-            public String getLabel() {
-                return omiTrapDef.getLabel();
-            }
-
-            public Severity getSeverity() {
-                return severity;
-            }
-
-            public String getDescription() {
-                return omiTrapDef.getLabel();
-            }
-
-            public LogMessage getLogMessage() {
-                return logMessage;
-            }
-
-            public AlarmData getAlarmData() {
-                return alarmData;
-            }
+        final int priority = omiTrapDef.isCatchAll() ? 999 : 1000;
+        final String uei = SINGLE_SPACE_PATTERN.matcher(UEI_PREFIX + omiTrapDef.getLabel()).replaceAll("_");
+        return pool.eventDefinition(priority, uei, omiTrapDef.getLabel(), severity, logMessage, alarmData, mask,
+                pool.parameters(parameters), omiTrapDef.getHelpText());
+    }
 
-            public Mask getMask() {
-                return mask;
-            }
+    private static LogMsgDestType toLogMsgDestType(OmiTrapDef omiTrapDef) {
+        if (omiTrapDef.isServerLogOnly()) {
+            return LogMsgDestType.LOGONLY;
+        }
+        if (omiTrapDef.getMatchType() == MatchType.MSG_MATCH) {
+            return LogMsgDestType.LOGNDISPLAY;
+        }
+        if (omiTrapDef.getMatchType() == MatchType.MSG_UNMATCH) {
+            return LogMsgDestType.LOGNDISPLAY;
+        }
+        if (omiTrapDef.getMatchType() == MatchType.SUPP_MATCH) {
+            return LogMsgDestType.DISCARDTRAPS;
+        }
+        if (omiTrapDef.getMatchType() == MatchType.SUPP_UNMATCH) {
+            return LogMsgDestType.DISCARDTRAPS;
+        }
+        return LogMsgDestType.LOGNDISPLAY;
+    }
 
-            public List<Parameter> getParameters() {
-                return parameters;
-            }
+    /**
+     * Converts an OMi varbind constraint value into the value used in the eventconf varbind mask.
+     * Policies reuse the same patterns over and over, so the results are memoized.
+     */
+    public static String toVarbindValue(final String inValue) {
+        return VARBIND_VALUE_CACHE.getUnchecked(inValue);
+    }
 
-            public String getOperatorInstructions() {
-                return decorateOperInstruct(omiTrapDef.getHelpText());
-            }
-        };
-        return def;
+    private static String translateVarbindValue(final String inValue) {
+        String vbString;
+        if (isGratuitouslyRegexedInteger(inValue)) {
+            vbString = inValue.substring(1, inValue.length() - 1);
+            LOG.debug("Varbind constraint value '{}' is a gratuitously-anchored integer value. Extracting and using sans regex in eventconf vbvalue: '{}'.", inValue, vbString);
+        } else if (isLiteralInteger(inValue)) {
+            vbString = inValue;
+            LOG.debug("Varbind constraint value '{}' is a bare integer value. Using verbatim in eventconf vbvalue: '{}'", inValue, vbString);
+        } else if (looksLiteral(inValue)) {
+            LOG.debug("Varbind constraint value '{}' looks literal. Skipping regex transformation and adapting as simple substring regex.", inValue);
+            StringBuilder sb = new StringBuilder("~.*").append(inValue).append(".*");
+            vbString = sb.toString();
+        }
+        else {
+            final String candidateVbString = translateOmiPatternToRegex(inValue);
+            try {
+                Pattern.compile(candidateVbString);
+                vbString = "~" + candidateVbString;
+                LOG.debug("Translated OMi pattern '{}' to regex '{}'", inValue, vbString);
+            } catch (PatternSyntaxException pse) {
+                LOG.debug("Failed to compile regex '{}' translated from OMi pattern '{}'.", candidateVbString, inValue);
+                vbString = BROKEN_VARBIND_VALUE_PREFIX + candidateVbString;
+            }
+        }
+        return vbString;
     }
     
     public static AlarmData toAlarmData(OmiTrapDef trapDef) {
@@ -680,56 +632,9 @@ public class OmiEventConfExtension implements EventConfExtension {
     }
     
     public static String translateOmiPatternToRegex(final String input) {
-        String curVal = input, lastVal = input;
-        // Attempt to replace pattern structures from the inside out
-
-        // Start with non-quantified, non-uservar tokens such as <*>
-        // Repeat until we reach stasis
-        int i = 0;
-        do {
-            i++;
-            lastVal = curVal;
-            curVal = translateAllSimpleActionGroupsToRegex(lastVal);
-            LOG.debug("SimpleActionGroups Pass {}: {} -> {}",i, lastVal.length(), curVal.length());
-        } while (!curVal.equals(lastVal));
-        
-        // Next, replace complex action groups such as <4#.somevar>
-        i = 0;
-        do {
-            i++;
-            lastVal = curVal;
-            curVal = translateAllComplexActionGroupsToRegex(lastVal);
-            LOG.debug("ComplexActionGroups Pass {}: {} -> {}",i, lastVal.length(), curVal.length());
-        } while (!curVal.equals(lastVal));
-        
-        // Now replace negated action patterns such as <![Warning]>
-        // TODO: This one needs refinement
-        i = 0;
-        do {
-            i++;
-            lastVal = curVal;
-            curVal = translateAllNegativeActionGroupsToRegex(lastVal);
-            LOG.debug("NegativeActionGroups Pass {}: {} -> {}",i, lastVal.length(), curVal.length());
-        } while (!curVal.equals(lastVal));
-        
-        // Separately handle assignment-only action groups such as <[foo|bar].thing>
-        i = 0;
-        do {
-            i++;
-            lastVal = curVal;
-            curVal = translateAllAssignOnlyActionGroupsToRegex(lastVal);
-            LOG.debug("AssignOnlyActionGroups Pass {}: {} -> {}",i, lastVal.length(), curVal.length());
-        } while (!curVal.equals(lastVal));
-        
-        // Finally, sub in parens for squares, which do basically the same job
-        i = 0;
-        do {
-            i++;
-            lastVal = curVal;
-            curVal = translateAllSquareBracketsToParens(lastVal);
-            LOG.debug("SquareBrackets Pass {}: {} -> {}",i, lastVal.length(), curVal.length());
-        } while (!curVal.equals(lastVal));
-        
+        String curVal = OmiPatternCompiler.compile(input);
+        LOG.debug("Compiled OMi pattern '{}' to '{}'", input, curVal);
+
         // Now, unless the pattern is anchored to beginning / end, let it be a substring
         if (! curVal.startsWith("^") && ! curVal.startsWith(".*")) {
             curVal = ".*?" + curVal;
@@ -740,171 +645,6 @@ public class OmiEventConfExtension implements EventConfExtension {
         return curVal;
     }
     
-    public static String translateAllSimpleActionGroupsToRegex(final String input) {
-        String output = input
-        .replaceAll("(?<!\\{1})<\\*>", Matcher.quoteReplacement(TOKEN_ASTERISK_REGEX_EQUIVALENT+"*?"))        // <*> matches any string of zero or more arbitrary characters (including separators)
-        .replaceAll("(?<!\\{1})<@>", Matcher.quoteReplacement(TOKEN_AT_REGEX_EQUIVALENT+"+?"))                // <@> matches any string that contains no separator characters, in other words, a sequence of one or more non-separators; this can be used for matching words
-        .replaceAll("(?<!\\{1})<#>", Matcher.quoteReplacement(TOKEN_HASH_REGEX_EQUIVALENT+"+?"))              // <#> matches a sequence of one or more digits
-        .replaceAll("(?<!\\{1})<_>", Matcher.quoteReplacement(TOKEN_UNDERSCORE_REGEX_EQUIVALENT+"+?"))        // <_> matches a sequence of one or more field separators
-        .replaceAll("(?<!\\{1})</>", Matcher.quoteReplacement(TOKEN_SLASH_REGEX_EQUIVALENT+"+?"))             // </> matches one or more line breaks
-        .replaceAll("(?<!\\{1})<S>", Matcher.quoteReplacement(TOKEN_S_REGEX_EQUIVALENT));                     // <S> matches one or more white space characters: space, tab and new line characters (" ", \t, \n, \r)
-        return output;
-    }
-    
-    public static String translateAllComplexActionGroupsToRegex(final String input) {
-        String output = input;
-        // If no <> remain, don't bother with replacing this stuff
-        if (!output.contains("<") && !output.contains(">")) {
-            return output;
-        }
-        Matcher mat = COMPLEX_ACTION_GROUP_PATTERN.matcher(output);
-        StringBuffer replSb = new StringBuffer();
-        StringBuilder workingSb = new StringBuilder();
-        while (mat.find()) {
-            LOG.debug("Replacing complex action-groups in range {}-{} ('{}')", mat.start(), mat.end(), input.substring(mat.start(), mat.end()));
-            workingSb = new StringBuilder();
-            final String quantifier = mat.group(1);
-            final String globToken = mat.group(2);
-            final String userVar = mat.group(3);
-            
-            if (userVar != null) {
-                // Note that OMi user var names may contain some non-alphanumeric characters,
-                // but regex named-capturing group names may not. Deal with this first.
-                // Note also that userVar carries the leading dot, so we do substring(1) to drop it
-                final String ncgName = adaptUserVarNameToRegex(userVar.substring(1));
-                // This opens a named-capturing group, which we will close down below
-                // e.g. "(?<stuff>" in case of "<*.stuff>"
-                workingSb.append("(?<").append(ncgName).append(">");
-            }
-            switch(globToken) {
-            case "*":
-                // This appends the atomic regex equivalent of the glob-token, along with
-                // the appropriate quantifier depending on whether the action group is quantified
-                workingSb.append(Matcher.quoteReplacement(TOKEN_ASTERISK_REGEX_EQUIVALENT));
-                if (quantifier != null) {
-                    // e.g. "{4}" in case of "<4*>"
-                    workingSb.append("{").append(quantifier).append("}");
-                } else {
-                    workingSb.append("*?");
-                }
-                break;
-            case "@":
-                workingSb.append(Matcher.quoteReplacement(TOKEN_AT_REGEX_EQUIVALENT));
-                if (quantifier != null) {
-                    workingSb.append("{").append(quantifier).append("}");
-                } else {
-                    workingSb.append("+?");
-                }
-                break;
-            case "#":
-                workingSb.append(Matcher.quoteReplacement(TOKEN_HASH_REGEX_EQUIVALENT));
-                if (quantifier != null) {
-                    workingSb.append("{").append(quantifier).append("}");
-                } else {
-                    workingSb.append("+?");
-                }
-                break;
-            case "_":
-                workingSb.append(Matcher.quoteReplacement(TOKEN_UNDERSCORE_REGEX_EQUIVALENT));
-                if (quantifier != null) {
-                    workingSb.append("{").append(quantifier).append("}");
-                } else {
-                    workingSb.append("+?");
-                }
-                break;
-            case "/":
-                workingSb.append(Matcher.quoteReplacement(TOKEN_SLASH_REGEX_EQUIVALENT));
-                if (quantifier != null) {
-                    workingSb.append("{").append(quantifier).append("}");
-                } else {
-                    workingSb.append("+");
-                }
-            case "S":
-                workingSb.append(Matcher.quoteReplacement(TOKEN_S_REGEX_EQUIVALENT));
-                if (quantifier != null) {
-                    workingSb.append("{").append(quantifier).append("}");
-                } else {
-                    workingSb.append("+");
-                }
-            }
-            if (userVar != null) {
-                // Here is where we close the named-capturing group
-                workingSb.append(")");
-            }
-            
-            LOG.debug("Appending replacement '{}' for ComplexActionGroup range {}-{}", workingSb.toString(), mat.start(), mat.end());
-            mat.appendReplacement(replSb, workingSb.toString());
-        }
-        mat.appendTail(replSb);
-        return "".equals(replSb.toString()) ? output : replSb.toString();
-    }
-    
-    public static String translateAllNegativeActionGroupsToRegex(final String input) {
-        String output = input;
-        if (!output.contains("<") && !output.contains(">")) {
-            return output;
-        }
-        Matcher mat = NEGATED_ACTION_GROUP_PATTERN.matcher(output);
-        StringBuffer replSb = new StringBuffer();
-        StringBuilder workingSb = new StringBuilder();
-        while (mat.find()) {
-            LOG.debug("Replacing negative action-groups in range {}-{} ('{}')", mat.start(), mat.end(), input.substring(mat.start(), mat.end()));
-
-            workingSb = new StringBuilder();
-            final String negatedSubpattern = mat.group(1);
-            // TODO: I might be using negative lookahead wrong here...
-            workingSb.append("(?!").append(negatedSubpattern).append(")");
-
-            LOG.debug("Appending replacement '{}' for NegativeActionGroup range {}-{}", workingSb.toString(), mat.start(), mat.end());
-            mat.appendReplacement(replSb, workingSb.toString());
-        }
-        return "".equals(replSb.toString()) ? output : replSb.toString();
-    }
-    
-    public static String translateAllAssignOnlyActionGroupsToRegex(final String input) {
-        String output = input;
-        if (!output.contains("<") && !output.contains(">")) {
-            return output;
-        }
-
-        Matcher mat = ASSIGN_ONLY_ACTION_GROUP_PATTERN.matcher(output);
-        StringBuffer replSb = new StringBuffer();
-        StringBuilder workingSb = new StringBuilder();
-        while (mat.find()) {
-            LOG.debug("Replacing assign-only action-groups in range {}-{} ('{}')", mat.start(), mat.end(), input.substring(mat.start(), mat.end()));
-            
-            workingSb = new StringBuilder();
-            final String groupBody = mat.group(1);
-            final String userVar = mat.group(2);
-            
-            // Note that OMi user var names may contain some non-alphanumeric characters,
-            // but regex named-capturing group names may not. Deal with this first.
-            // Note also that userVar carries the leading dot, so we do substring(1) to drop it
-            final String ncgName = adaptUserVarNameToRegex(userVar.substring(1));
-            
-            workingSb.append("(?<").append(ncgName).append(">").append(groupBody).append(")");
-
-            LOG.debug("Appending replacement '{}' for AssignOnlyActionGroup range {}-{}", workingSb.toString(), mat.start(), mat.end());
-            mat.appendReplacement(replSb, workingSb.toString());
-        }
-        mat.appendTail(replSb);
-        return "".equals(replSb.toString()) ? output : replSb.toString();
-    }
-    
-    public static String translateAllSquareBracketsToParens(final String input) {
-        String output = input;
-        if (!output.contains("[") && !output.contains("]")) {
-            return output;
-        }
-        Matcher mat = INNER_GROUPING_PATTERN.matcher(output);
-        StringBuffer replSb = new StringBuffer();
-        while (mat.find()) {
-            mat.appendReplacement(replSb, "($1)");
-        }
-        mat.appendTail(replSb);
-        return "".equals(replSb.toString()) ? output : replSb.toString();
-    }
-    
     // Given the name of an OMi policy user variable (which may contain
     // underscores and dashes, at least), convert to a purely alphanumeric
     // name as required for use as a regex named-capturing group. We do this
@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi;
+
+import static org.opennms.plugins.omi.OmiEventConfExtension.TOKEN_ASTERISK_REGEX_EQUIVALENT;
+import static org.opennms.plugins.omi.OmiEventConfExtension.TOKEN_AT_REGEX_EQUIVALENT;
+import static org.opennms.plugins.omi.OmiEventConfExtension.TOKEN_HASH_REGEX_EQUIVALENT;
+import static org.opennms.plugins.omi.OmiEventConfExtension.TOKEN_SLASH_REGEX_EQUIVALENT;
+import static org.opennms.plugins.omi.OmiEventConfExtension.TOKEN_S_REGEX_EQUIVALENT;
+import static org.opennms.plugins.omi.OmiEventConfExtension.TOKEN_UNDERSCORE_REGEX_EQUIVALENT;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Translates an OMi pattern into the body of an equivalent Java regex in a single
+ * left-to-right pass. Literal text is passed through untouched, square-bracket
+ * groups become parenthesized groups, and action groups become their regex
+ * equivalents, with user variables turned into named-capturing groups:
+ * <ul>
+ * <li>{@code <*>}, {@code <@>}, {@code <#>}, {@code <_>}, {@code </>}, {@code <S>}</li>
+ * <li>{@code <4*.stuff>} (optional length, optional user variable)</li>
+ * <li>{@code <[foo|bar].thing>} (assignment-only)</li>
+ * <li>{@code <![Warning]>} (negation)</li>
+ * </ul>
+ * Anything that does not form one of these constructs is emitted literally.
+ *
+ * Along the way the compiler collects the literal runs outside of any group, which every
+ * value matched by the regex must contain, see {@link #requiredLiterals(String)}.
+ */
+public final class OmiPatternCompiler {
+
+    private static final String GLOB_TOKENS = "*@#_/S";
+
+    private final String pattern;
+
+    // For each '[', the index of its matching ']', or -1 if it has none
+    private final int[] closingBracket;
+
+    private final StringBuilder out;
+
+    private int depth = 0;
+
+    // Literal runs at the top level of the pattern
+    private final List<String> literals = new ArrayList<>();
+    private final StringBuilder literal = new StringBuilder();
+    private boolean literalEscaped = false;
+    private boolean literalsUnknown = false;
+
+    private OmiPatternCompiler(final String pattern) {
+        this.pattern = pattern;
+        this.closingBracket = matchBrackets(pattern);
+        this.out = new StringBuilder(pattern.length() * 2);
+        compileRange(0, pattern.length());
+        endLiteral();
+    }
+
+    public static String compile(final String pattern) {
+        return new OmiPatternCompiler(pattern).out.toString();
+    }
+
+    /**
+     * Returns the literal substrings that any value matching the compiled pattern must contain.
+     * The list is empty when there are none, or when the pattern uses regex constructs in its
+     * literal text (e.g. a top-level '|') that make it impossible to tell.
+     */
+    public static List<String> requiredLiterals(final String pattern) {
+        final OmiPatternCompiler compiler = new OmiPatternCompiler(pattern);
+        return compiler.literalsUnknown ? Collections.emptyList() : Collections.unmodifiableList(compiler.literals);
+    }
+
+    private void compileRange(final int start, final int end) {
+        depth++;
+        int i = start;
+        while (i < end) {
+            final char c = pattern.charAt(i);
+            if (c == '<') {
+                final int next = compileActionGroup(i, end);
+                if (next > i) {
+                    endLiteral();
+                    i = next;
+                    continue;
+                }
+            } else if (c == '[' && isGroup(i, end)) {
+                endLiteral();
+                out.append('(');
+                compileRange(i + 1, closingBracket[i]);
+                out.append(')');
+                i = closingBracket[i] + 1;
+                continue;
+            }
+            out.append(c);
+            if (depth == 1) {
+                appendLiteral(c);
+            }
+            i++;
+        }
+        depth--;
+    }
+
+    // Literal text is passed to the regex as is, so its regex meaning decides what is required
+    private void appendLiteral(final char c) {
+        if (literalEscaped) {
+            literalEscaped = false;
+            return;
+        }
+        switch (c) {
+        case '\\':
+            endLiteral();
+            literalEscaped = true;
+            break;
+        case '.':
+        case '^':
+        case '$':
+            endLiteral();
+            break;
+        case '?':
+        case '*':
+        case '+':
+            // The quantified character is optional or repeated
+            if (literal.length() > 0) {
+                literal.setLength(literal.length() - 1);
+            }
+            endLiteral();
+            break;
+        case '|':
+        case '(':
+        case ')':
+        case '[':
+        case ']':
+        case '{':
+        case '}':
+            literalsUnknown = true;
+            endLiteral();
+            break;
+        default:
+            literal.append(c);
+        }
+    }
+
+    private void endLiteral() {
+        if (literal.length() > 0) {
+            literals.add(literal.toString());
+            literal.setLength(0);
+        }
+    }
+
+    // Emits the action group opening at pos and returns the index just past it,
+    // or returns pos without emitting anything if there is no action group there
+    private int compileActionGroup(final int pos, final int end) {
+        int i = pos + 1;
+        if (i >= end) {
+            return pos;
+        }
+
+        // <![...]>
+        if (pattern.charAt(i) == '!') {
+            if (i + 1 < end && pattern.charAt(i + 1) == '[' && isGroup(i + 1, end)) {
+                final int close = closingBracket[i + 1];
+                if (close + 1 < end && pattern.charAt(close + 1) == '>') {
+                    out.append("(?!(");
+                    compileRange(i + 2, close);
+                    out.append("))");
+                    return close + 2;
+                }
+            }
+            return pos;
+        }
+
+        // <[...].name>
+        if (pattern.charAt(i) == '[') {
+            if (isGroup(i, end)) {
+                final int close = closingBracket[i];
+                final int nameEnd = scanUserVar(close + 1, end);
+                if (nameEnd > 0 && nameEnd < end && pattern.charAt(nameEnd) == '>') {
+                    openNamedGroup(close + 2, nameEnd);
+                    out.append('(');
+                    compileRange(i + 1, close);
+                    out.append("))");
+                    return nameEnd + 1;
+                }
+            }
+            return pos;
+        }
+
+        // <[n]token[.name]>
+        final int quantifierStart = i;
+        while (i < end && isAsciiDigit(pattern.charAt(i))) {
+            i++;
+        }
+        final String quantifier = i > quantifierStart ? pattern.substring(quantifierStart, i) : null;
+        if (i >= end || GLOB_TOKENS.indexOf(pattern.charAt(i)) < 0) {
+            return pos;
+        }
+        final char token = pattern.charAt(i++);
+        int nameEnd = -1;
+        if (i < end && pattern.charAt(i) == '.') {
+            nameEnd = scanUserVar(i, end);
+            if (nameEnd < 0) {
+                return pos;
+            }
+        }
+        final int close = nameEnd > 0 ? nameEnd : i;
+        if (close >= end || pattern.charAt(close) != '>') {
+            return pos;
+        }
+
+        if (nameEnd > 0) {
+            openNamedGroup(i + 1, nameEnd);
+        }
+        if (quantifier == null && nameEnd < 0) {
+            appendSimpleToken(token);
+        } else {
+            appendToken(token, quantifier);
+        }
+        if (nameEnd > 0) {
+            out.append(')');
+        }
+        return close + 1;
+    }
+
+    private void appendSimpleToken(final char token) {
+        switch (token) {
+        case '*':
+            out.append(TOKEN_ASTERISK_REGEX_EQUIVALENT).append("*?");
+            break;
+        case '@':
+            out.append(TOKEN_AT_REGEX_EQUIVALENT).append("+?");
+            break;
+        case '#':
+            out.append(TOKEN_HASH_REGEX_EQUIVALENT).append("+?");
+            break;
+        case '_':
+            out.append(TOKEN_UNDERSCORE_REGEX_EQUIVALENT).append("+?");
+            break;
+        case '/':
+            out.append(TOKEN_SLASH_REGEX_EQUIVALENT).append("+?");
+            break;
+        default:
+            out.append(TOKEN_S_REGEX_EQUIVALENT);
+        }
+    }
+
+    private void appendToken(final char token, final String quantifier) {
+        switch (token) {
+        case '*':
+            out.append(TOKEN_ASTERISK_REGEX_EQUIVALENT);
+            appendQuantifier(quantifier, "*?");
+            break;
+        case '@':
+            out.append(TOKEN_AT_REGEX_EQUIVALENT);
+            appendQuantifier(quantifier, "+?");
+            break;
+        case '#':
+            out.append(TOKEN_HASH_REGEX_EQUIVALENT);
+            appendQuantifier(quantifier, "+?");
+            break;
+        case '_':
+            out.append(TOKEN_UNDERSCORE_REGEX_EQUIVALENT);
+            appendQuantifier(quantifier, "+?");
+            break;
+        case '/':
+            out.append(TOKEN_SLASH_REGEX_EQUIVALENT);
+            appendQuantifier(quantifier, "+");
+            break;
+        default:
+            out.append(TOKEN_S_REGEX_EQUIVALENT);
+            appendQuantifier(quantifier, "+");
+        }
+    }
+
+    private void appendQuantifier(final String quantifier, final String otherwise) {
+        if (quantifier != null) {
+            out.append('{').append(quantifier).append('}');
+        } else {
+            out.append(otherwise);
+        }
+    }
+
+    private void openNamedGroup(final int nameStart, final int nameEnd) {
+        // OMi user var names may contain characters that regex group names may not
+        out.append("(?<")
+           .append(OmiEventConfExtension.adaptUserVarNameToRegex(pattern.substring(nameStart, nameEnd)))
+           .append('>');
+    }
+
+    private boolean isGroup(final int open, final int end) {
+        return closingBracket[open] > 0 && closingBracket[open] < end;
+    }
+
+    // Scans ".name" starting at the dot; returns the index just past the name, or -1
+    private int scanUserVar(final int dot, final int end) {
+        if (dot + 2 >= end || pattern.charAt(dot) != '.' || !isAsciiLetter(pattern.charAt(dot + 1))) {
+            return -1;
+        }
+        int i = dot + 2;
+        while (i < end && isUserVarChar(pattern.charAt(i))) {
+            i++;
+        }
+        return i > dot + 2 ? i : -1;
+    }
+
+    private static boolean isAsciiLetter(final char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static boolean isAsciiDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isUserVarChar(final char c) {
+        return isAsciiLetter(c) || isAsciiDigit(c) || c == '_' || c == '-';
+    }
+
+    // Pairs up square brackets; empty pairs are left as literal text
+    private static int[] matchBrackets(final String pattern) {
+        final int[] closing = new int[pattern.length()];
+        Arrays.fill(closing, -1);
+        final Deque<Integer> open = new ArrayDeque<>();
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '[') {
+                open.push(i);
+            } else if (c == ']' && !open.isEmpty()) {
+                final int start = open.pop();
+                if (i > start + 1) {
+                    closing[start] = i;
+                }
+            }
+        }
+        return closing;
+    }
+}
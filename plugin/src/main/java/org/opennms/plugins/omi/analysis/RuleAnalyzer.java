@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opennms.plugins.omi.OmiEventConfExtension;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+
+/**
+ * Finds the trap definitions that can never decide a trap, in the order eventd tries them:
+ * <ul>
+ * <li>duplicates of an earlier definition of the same match type,</li>
+ * <li>definitions shadowed by an earlier one of the same match type, whose masks cover
+ * theirs and whose varbind constraints accept every value theirs do,</li>
+ * <li>definitions with a varbind constraint none of whose values could be translated to
+ * a valid regex, see {@link OmiEventConfExtension#BROKEN_VARBIND_VALUE_PREFIX}.</li>
+ * </ul>
+ * Varbind constraints are compared by their translated values, so a constraint only counts
+ * as covering another one if it accepts a superset of the exact same values or patterns.
+ * Regexes are not compared by what they match, which keeps the analysis conservative.
+ */
+public class RuleAnalyzer {
+
+    public enum FindingType {
+        DUPLICATE,
+        SHADOWED,
+        NEVER_MATCHES
+    }
+
+    public static class Finding {
+        private final FindingType type;
+        private final OmiTrapDef trapDef;
+        private final OmiTrapDef coveredBy;
+
+        private Finding(FindingType type, OmiTrapDef trapDef, OmiTrapDef coveredBy) {
+            this.type = type;
+            this.trapDef = trapDef;
+            this.coveredBy = coveredBy;
+        }
+
+        public FindingType getType() {
+            return type;
+        }
+
+        public OmiTrapDef getTrapDef() {
+            return trapDef;
+        }
+
+        /**
+         * @return the earlier definition that duplicates or shadows this one, or null
+         */
+        public OmiTrapDef getCoveredBy() {
+            return coveredBy;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder()
+                    .append(type).append(": ").append(describe(trapDef));
+            if (coveredBy != null) {
+                sb.append(" by ").append(describe(coveredBy));
+            }
+            return sb.toString();
+        }
+
+        private static String describe(OmiTrapDef trapDef) {
+            return String.format("%s %s (%s/%s/%s)", trapDef.getMatchType(), trapDef.getLabel(),
+                    trapDef.getEnterpriseId(), trapDef.getGeneric(), trapDef.getSpecific());
+        }
+    }
+
+    /**
+     * @param trapDefs the definitions, in policy order
+     * @return a finding for every definition that can never decide a trap, in policy order
+     */
+    public static List<Finding> analyze(List<OmiTrapDef> trapDefs) {
+        // Definitions only compete with those eventd tries with the same priority, in the same tier
+        final Map<Tier, Map<Key, List<Rule>>> earlierRules = new HashMap<>();
+        final List<Finding> findings = new ArrayList<>();
+        for (OmiTrapDef trapDef : trapDefs) {
+            final Rule rule = new Rule(trapDef);
+            if (rule.broken) {
+                findings.add(new Finding(FindingType.NEVER_MATCHES, trapDef, null));
+                continue;
+            }
+
+            final Map<Key, List<Rule>> rulesByKey = earlierRules.computeIfAbsent(new Tier(trapDef), t -> new HashMap<>());
+            final Finding finding = findCoveringRule(rule, rulesByKey);
+            if (finding != null) {
+                findings.add(finding);
+                continue;
+            }
+            rulesByKey.computeIfAbsent(rule.key, k -> new ArrayList<>()).add(rule);
+        }
+        return findings;
+    }
+
+    /**
+     * @return the definitions that can be left out without changing the outcome for any trap
+     */
+    public static Set<OmiTrapDef> getRedundantTrapDefs(List<Finding> findings) {
+        final Set<OmiTrapDef> redundant = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Finding finding : findings) {
+            redundant.add(finding.getTrapDef());
+        }
+        return redundant;
+    }
+
+    private static Finding findCoveringRule(Rule rule, Map<Key, List<Rule>> rulesByKey) {
+        Finding shadowed = null;
+        for (Key key : rule.key.generalizations()) {
+            final List<Rule> candidates = rulesByKey.get(key);
+            if (candidates == null) {
+                continue;
+            }
+            for (Rule earlier : candidates) {
+                if (!earlier.acceptsAllOf(rule)) {
+                    continue;
+                }
+                if (earlier.key.equals(rule.key) && rule.acceptsAllOf(earlier)) {
+                    return new Finding(FindingType.DUPLICATE, rule.trapDef, earlier.trapDef);
+                }
+                if (shadowed == null) {
+                    shadowed = new Finding(FindingType.SHADOWED, rule.trapDef, earlier.trapDef);
+                }
+            }
+        }
+        return shadowed;
+    }
+
+    private static class Rule {
+        private final OmiTrapDef trapDef;
+        private final Key key;
+        // The values accepted by each varbind constraint, translated as they are for eventd
+        private final Map<Integer, List<Set<String>>> constraints = new HashMap<>();
+        private boolean broken = false;
+
+        private Rule(OmiTrapDef trapDef) {
+            this.trapDef = trapDef;
+            this.key = new Key(trapDef.getTrapTypeOid(), normalizeOid(trapDef.getEnterpriseId()), trapDef.getGeneric(), trapDef.getSpecific());
+            for (VarbindConstraint constraint : trapDef.getVarbindConstraints()) {
+                final Set<String> values = new HashSet<>();
+                for (String value : constraint.getValueExpressions()) {
+                    final String translated = OmiEventConfExtension.toVarbindValue(value);
+                    // Broken values never match, so they can be left out
+                    if (!translated.startsWith(OmiEventConfExtension.BROKEN_VARBIND_VALUE_PREFIX)) {
+                        values.add(translated);
+                    }
+                }
+                if (values.isEmpty() && !constraint.getValueExpressions().isEmpty()) {
+                    broken = true;
+                }
+                constraints.computeIfAbsent(constraint.getVbOrdinal(), n -> new ArrayList<>()).add(values);
+            }
+        }
+
+        // True if every trap that satisfies the other rule's constraints satisfies this rule's
+        private boolean acceptsAllOf(Rule other) {
+            for (Map.Entry<Integer, List<Set<String>>> constraint : constraints.entrySet()) {
+                final List<Set<String>> otherConstraint = other.constraints.get(constraint.getKey());
+                if (otherConstraint == null) {
+                    return false;
+                }
+                for (Set<String> values : constraint.getValue()) {
+                    if (otherConstraint.stream().noneMatch(values::containsAll)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Tier {
+        private final MatchType matchType;
+        private final boolean catchAll;
+
+        private Tier(OmiTrapDef trapDef) {
+            this.matchType = trapDef.getMatchType();
+            this.catchAll = trapDef.isCatchAll();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tier)) {
+                return false;
+            }
+            final Tier other = (Tier)o;
+            return matchType == other.matchType && catchAll == other.catchAll;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(matchType, catchAll);
+        }
+    }
+
+    // The mask of a definition; a null element matches anything
+    private static class Key {
+        private final String trapTypeOid;
+        private final String enterpriseId;
+        private final Integer generic;
+        private final Integer specific;
+
+        private Key(String trapTypeOid, String enterpriseId, Integer generic, Integer specific) {
+            this.trapTypeOid = trapTypeOid;
+            this.enterpriseId = enterpriseId;
+            this.generic = generic;
+            this.specific = specific;
+        }
+
+        // This key and the keys of every mask that covers it
+        private List<Key> generalizations() {
+            final List<Key> keys = new ArrayList<>(8);
+            for (String e : enterpriseId == null ? Collections.<String>singletonList(null) : Arrays.asList(enterpriseId, null)) {
+                for (Integer g : generic == null ? Collections.<Integer>singletonList(null) : Arrays.asList(generic, null)) {
+                    for (Integer s : specific == null ? Collections.<Integer>singletonList(null) : Arrays.asList(specific, null)) {
+                        keys.add(new Key(trapTypeOid, e, g, s));
+                    }
+                }
+            }
+            return keys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key)o;
+            return Objects.equals(trapTypeOid, other.trapTypeOid) && Objects.equals(enterpriseId, other.enterpriseId)
+                    && Objects.equals(generic, other.generic) && Objects.equals(specific, other.specific);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(trapTypeOid, enterpriseId, generic, specific);
+        }
+    }
+
+    private static String normalizeOid(String oid) {
+        return oid == null || oid.startsWith(".") ? oid : "." + oid;
+    }
+}
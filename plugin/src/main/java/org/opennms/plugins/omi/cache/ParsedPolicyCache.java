@@ -0,0 +1,320 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * On-disk cache of the trap definitions parsed from OMi policy files.
+ *
+ * Entries are keyed by the SHA-256 hash of the policy file's content and are only
+ * valid for the plugin version that wrote them, so that changes to the grammar or
+ * the visitor never serve stale definitions. Each entry is stored in its own file
+ * using a compact binary format: a table of the distinct strings, followed by the
+ * definitions, which refer to the strings by their index.
+ *
+ * The catch-all flag depends on the configuration rather than on the content of
+ * the policy file, so it is not cached and must be applied by the caller.
+ */
+public class ParsedPolicyCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParsedPolicyCache.class);
+
+    private static final int MAGIC = 0x4F4D4943; // "OMIC"
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final int NULL_INDEX = 0;
+
+    private final File cacheDirectory;
+    private final String pluginVersion;
+
+    public ParsedPolicyCache(File cacheDirectory, String pluginVersion) {
+        this.cacheDirectory = Objects.requireNonNull(cacheDirectory, "cache directory is required");
+        this.pluginVersion = Objects.requireNonNull(pluginVersion, "plugin version is required");
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * @return the cached definitions for a policy file with the given content hash,
+     *         or null if there is no usable entry
+     */
+    public List<OmiTrapDef> get(HashCode contentHash) {
+        final File entryFile = getEntryFile(contentHash);
+        if (!entryFile.isFile()) {
+            return null;
+        }
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(entryFile.toPath()))) {
+            final DataInputStream in = new DataInputStream(is);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !pluginVersion.equals(in.readUTF())) {
+                LOG.debug("Ignoring cache entry {} written by another version of the plugin.", entryFile);
+                return null;
+            }
+            final byte[] entryHash = new byte[in.readUnsignedByte()];
+            in.readFully(entryHash);
+            if (!Arrays.equals(entryHash, contentHash.asBytes())) {
+                LOG.warn("Ignoring cache entry {} with a mismatched content hash.", entryFile);
+                return null;
+            }
+            return readTrapDefs(in);
+        } catch (IOException|RuntimeException e) {
+            LOG.warn("Failed to read cache entry {}. The policy file will be parsed instead.", entryFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the definitions parsed from a policy file with the given content hash.
+     * Failures are logged, since the cache is only an optimization.
+     */
+    public void put(HashCode contentHash, List<OmiTrapDef> trapDefs) {
+        final File entryFile = getEntryFile(contentHash);
+        Path tempFile = null;
+        try {
+            Files.createDirectories(cacheDirectory.toPath());
+            tempFile = Files.createTempFile(cacheDirectory.toPath(), contentHash.toString(), ".tmp");
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                final DataOutputStream out = new DataOutputStream(os);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(pluginVersion);
+                final byte[] hash = contentHash.asBytes();
+                out.writeByte(hash.length);
+                out.write(hash);
+                writeTrapDefs(out, trapDefs);
+            }
+            // Readers should never see a partially written entry
+            try {
+                Files.move(tempFile, entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+        } catch (IOException e) {
+            LOG.warn("Failed to write cache entry {}.", entryFile, e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    LOG.debug("Failed to delete temporary file {}.", tempFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entries for content that is no longer present in any policy file.
+     */
+    public void retainAll(Collection<HashCode> contentHashes) {
+        final Set<String> entryNames = contentHashes.stream()
+                .map(h -> getEntryFile(h).getName())
+                .collect(Collectors.toSet());
+        final File[] entryFiles = cacheDirectory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX) && !entryNames.contains(name));
+        if (entryFiles == null) {
+            return;
+        }
+        for (File entryFile : entryFiles) {
+            LOG.debug("Removing unused cache entry {}.", entryFile);
+            if (!entryFile.delete()) {
+                LOG.warn("Failed to remove unused cache entry {}.", entryFile);
+            }
+        }
+    }
+
+    private File getEntryFile(HashCode contentHash) {
+        return new File(cacheDirectory, contentHash.toString() + ENTRY_SUFFIX);
+    }
+
+    private static void writeTrapDefs(DataOutputStream out, List<OmiTrapDef> trapDefs) throws IOException {
+        // Policy files repeat the same applications, message groups, enterprise IDs and so on,
+        // so store every distinct string once and refer to it by index. Index 0 is reserved for null.
+        final Map<String, Integer> stringTable = new LinkedHashMap<>();
+        for (OmiTrapDef trapDef : trapDefs) {
+            for (String string : getStrings(trapDef)) {
+                if (string != null) {
+                    stringTable.putIfAbsent(string, stringTable.size() + 1);
+                }
+            }
+        }
+        writeVarInt(out, stringTable.size());
+        for (String string : stringTable.keySet()) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        writeVarInt(out, trapDefs.size());
+        for (OmiTrapDef trapDef : trapDefs) {
+            out.writeByte(trapDef.getMatchType() == null ? -1 : trapDef.getMatchType().ordinal());
+            writeNullableInt(out, trapDef.getGeneric());
+            writeNullableInt(out, trapDef.getSpecific());
+            out.writeBoolean(trapDef.isServerLogOnly());
+            for (String string : getScalarStrings(trapDef)) {
+                writeStringRef(out, stringTable, string);
+            }
+            writeVarInt(out, trapDef.getVarbindConstraints().size());
+            for (VarbindConstraint vbc : trapDef.getVarbindConstraints()) {
+                writeVarInt(out, vbc.getVbOrdinal());
+                writeVarInt(out, vbc.getValueExpressions().size());
+                for (String valueExpression : vbc.getValueExpressions()) {
+                    writeStringRef(out, stringTable, valueExpression);
+                }
+            }
+        }
+    }
+
+    private static List<OmiTrapDef> readTrapDefs(DataInputStream in) throws IOException {
+        final String[] stringTable = new String[readVarInt(in) + 1];
+        for (int i = 1; i < stringTable.length; i++) {
+            final byte[] bytes = new byte[readVarInt(in)];
+            in.readFully(bytes);
+            stringTable[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        final int numTrapDefs = readVarInt(in);
+        final List<OmiTrapDef> trapDefs = new ArrayList<>(numTrapDefs);
+        for (int i = 0; i < numTrapDefs; i++) {
+            final OmiTrapDef trapDef = new OmiTrapDef();
+            final byte matchType = in.readByte();
+            trapDef.setMatchType(matchType < 0 ? null : MatchType.values()[matchType]);
+            trapDef.setGeneric(readNullableInt(in));
+            trapDef.setSpecific(readNullableInt(in));
+            trapDef.setServerLogOnly(in.readBoolean());
+            // Must match the order of getScalarStrings()
+            trapDef.setLabel(readStringRef(in, stringTable));
+            trapDef.setEnterpriseId(readStringRef(in, stringTable));
+            trapDef.setSeverity(readStringRef(in, stringTable));
+            trapDef.setText(readStringRef(in, stringTable));
+            trapDef.setObject(readStringRef(in, stringTable));
+            trapDef.setApplication(readStringRef(in, stringTable));
+            trapDef.setMsgGrp(readStringRef(in, stringTable));
+            trapDef.setMsgKey(readStringRef(in, stringTable));
+            trapDef.setMsgKeyRelation(readStringRef(in, stringTable));
+            trapDef.setHelpText(readStringRef(in, stringTable));
+            trapDef.setTrapTypeOid(readStringRef(in, stringTable));
+            final int numVarbindConstraints = readVarInt(in);
+            for (int j = 0; j < numVarbindConstraints; j++) {
+                final int vbOrdinal = readVarInt(in);
+                final int numValueExpressions = readVarInt(in);
+                final List<String> valueExpressions = new ArrayList<>(numValueExpressions);
+                for (int k = 0; k < numValueExpressions; k++) {
+                    valueExpressions.add(readStringRef(in, stringTable));
+                }
+                trapDef.addVarbindConstraint(new VarbindConstraint(vbOrdinal, valueExpressions));
+            }
+            trapDefs.add(trapDef);
+        }
+        return trapDefs;
+    }
+
+    private static List<String> getScalarStrings(OmiTrapDef trapDef) {
+        return Arrays.asList(trapDef.getLabel(), trapDef.getEnterpriseId(), trapDef.getSeverity(), trapDef.getText(),
+                trapDef.getObject(), trapDef.getApplication(), trapDef.getMsgGrp(), trapDef.getMsgKey(),
+                trapDef.getMsgKeyRelation(), trapDef.getHelpText(), trapDef.getTrapTypeOid());
+    }
+
+    private static List<String> getStrings(OmiTrapDef trapDef) {
+        final List<String> strings = new ArrayList<>(getScalarStrings(trapDef));
+        for (VarbindConstraint vbc : trapDef.getVarbindConstraints()) {
+            strings.addAll(vbc.getValueExpressions());
+        }
+        return strings;
+    }
+
+    private static void writeStringRef(DataOutputStream out, Map<String, Integer> stringTable, String string) throws IOException {
+        writeVarInt(out, string == null ? NULL_INDEX : stringTable.get(string));
+    }
+
+    private static String readStringRef(DataInputStream in, String[] stringTable) throws IOException {
+        return stringTable[readVarInt(in)];
+    }
+
+    private static void writeNullableInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readNullableInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer.");
+    }
+}
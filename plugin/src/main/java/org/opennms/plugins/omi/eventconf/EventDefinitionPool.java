@@ -0,0 +1,492 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.eventconf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+import org.opennms.integration.api.v1.config.events.AlarmData;
+import org.opennms.integration.api.v1.config.events.AlarmType;
+import org.opennms.integration.api.v1.config.events.EventDefinition;
+import org.opennms.integration.api.v1.config.events.LogMessage;
+import org.opennms.integration.api.v1.config.events.LogMsgDestType;
+import org.opennms.integration.api.v1.config.events.ManagedObject;
+import org.opennms.integration.api.v1.config.events.Mask;
+import org.opennms.integration.api.v1.config.events.MaskElement;
+import org.opennms.integration.api.v1.config.events.Parameter;
+import org.opennms.integration.api.v1.config.events.UpdateField;
+import org.opennms.integration.api.v1.config.events.Varbind;
+import org.opennms.integration.api.v1.model.Severity;
+
+/**
+ * Builds compact, immutable event definitions. Policies repeat the same masks, varbind values,
+ * parameters, log messages and help texts across many conditions, so the pool hands out a single
+ * shared instance for each distinct value, and each event definition only holds references to them.
+ *
+ * A pool is meant to be used for a single generation of event definitions and dropped afterwards;
+ * the definitions it built keep only the shared values they use.
+ */
+public final class EventDefinitionPool {
+
+    private final Map<Object, Object> canonical = new HashMap<>();
+
+    private final UnaryOperator<String> operatorInstructionsDecorator;
+
+    /**
+     * @param operatorInstructionsDecorator turns a help text into the operator instructions; it is
+     *                                      only called when the instructions are first asked for
+     */
+    public EventDefinitionPool(UnaryOperator<String> operatorInstructionsDecorator) {
+        this.operatorInstructionsDecorator = Objects.requireNonNull(operatorInstructionsDecorator);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T canonicalize(T value) {
+        if (value == null) {
+            return null;
+        }
+        final Object existing = canonical.putIfAbsent(value, value);
+        return existing != null ? (T)existing : value;
+    }
+
+    public String intern(String value) {
+        return canonicalize(value);
+    }
+
+    public MaskElement maskElement(String name, String value) {
+        return canonicalize(new FlyweightMaskElement(intern(name), Collections.singletonList(intern(value))));
+    }
+
+    public Varbind varbind(int number, List<String> values) {
+        final List<String> internedValues = new ArrayList<>(values.size());
+        for (String value : values) {
+            internedValues.add(intern(value));
+        }
+        return canonicalize(new FlyweightVarbind(number, canonicalize(Collections.unmodifiableList(internedValues))));
+    }
+
+    /**
+     * @return the mask, or null if there are no mask elements
+     */
+    public Mask mask(List<MaskElement> maskElements, List<Varbind> varbinds) {
+        if (maskElements.isEmpty()) {
+            return null;
+        }
+        return canonicalize(new FlyweightMask(canonicalize(Collections.unmodifiableList(new ArrayList<>(maskElements))),
+                canonicalize(Collections.unmodifiableList(new ArrayList<>(varbinds)))));
+    }
+
+    public LogMessage logMessage(String content, LogMsgDestType destination) {
+        return canonicalize(new FlyweightLogMessage(intern(content), destination));
+    }
+
+    /**
+     * @return alarm data for problems without a resolution, with the given reduction key
+     */
+    public AlarmData alarmData(String reductionKey) {
+        return canonicalize(new FlyweightAlarmData(intern(reductionKey)));
+    }
+
+    public Parameter parameter(String name, String value, boolean expand) {
+        return canonicalize(new FlyweightParameter(intern(name), intern(value), expand));
+    }
+
+    public List<Parameter> parameters(List<Parameter> parameters) {
+        return canonicalize(Collections.unmodifiableList(new ArrayList<>(parameters)));
+    }
+
+    public EventDefinition eventDefinition(int priority, String uei, String label, Severity severity, LogMessage logMessage,
+                                           AlarmData alarmData, Mask mask, List<Parameter> parameters, String helpText) {
+        final OperatorInstructions operatorInstructions = canonicalize(new OperatorInstructions(intern(helpText), operatorInstructionsDecorator));
+        return new FlyweightEventDefinition(priority, intern(uei), intern(label), severity, logMessage, alarmData, mask, parameters, operatorInstructions);
+    }
+
+    /**
+     * Shared by all of the definitions with the same help text, and decorated the first time it is asked for.
+     */
+    private static final class OperatorInstructions {
+        private final String helpText;
+        private final UnaryOperator<String> decorator;
+        private volatile String decorated;
+
+        private OperatorInstructions(String helpText, UnaryOperator<String> decorator) {
+            this.helpText = helpText;
+            this.decorator = decorator;
+        }
+
+        private String get() {
+            String result = decorated;
+            if (result == null && helpText != null) {
+                result = decorator.apply(helpText);
+                decorated = result;
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof OperatorInstructions && Objects.equals(helpText, ((OperatorInstructions)o).helpText);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(helpText);
+        }
+    }
+
+    private static final class FlyweightEventDefinition implements EventDefinition {
+        private final int priority;
+        private final String uei;
+        private final String label;
+        private final Severity severity;
+        private final LogMessage logMessage;
+        private final AlarmData alarmData;
+        private final Mask mask;
+        private final List<Parameter> parameters;
+        private final OperatorInstructions operatorInstructions;
+
+        private FlyweightEventDefinition(int priority, String uei, String label, Severity severity, LogMessage logMessage,
+                                         AlarmData alarmData, Mask mask, List<Parameter> parameters, OperatorInstructions operatorInstructions) {
+            this.priority = priority;
+            this.uei = uei;
+            this.label = label;
+            this.severity = severity;
+            this.logMessage = logMessage;
+            this.alarmData = alarmData;
+            this.mask = mask;
+            this.parameters = parameters;
+            this.operatorInstructions = operatorInstructions;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String getUei() {
+            return uei;
+        }
+
+        @Override
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public Severity getSeverity() {
+            return severity;
+        }
+
+        @Override
+        public String getDescription() {
+            return label;
+        }
+
+        @Override
+        public LogMessage getLogMessage() {
+            return logMessage;
+        }
+
+        @Override
+        public AlarmData getAlarmData() {
+            return alarmData;
+        }
+
+        @Override
+        public Mask getMask() {
+            return mask;
+        }
+
+        @Override
+        public List<Parameter> getParameters() {
+            return parameters;
+        }
+
+        @Override
+        public String getOperatorInstructions() {
+            return operatorInstructions.get();
+        }
+
+        @Override
+        public String toString() {
+            return "EventDefinition{uei=" + uei + ", priority=" + priority + ", severity=" + severity + ", mask=" + mask + '}';
+        }
+    }
+
+    private static final class FlyweightMask implements Mask {
+        private final List<MaskElement> maskElements;
+        private final List<Varbind> varbinds;
+
+        private FlyweightMask(List<MaskElement> maskElements, List<Varbind> varbinds) {
+            this.maskElements = maskElements;
+            this.varbinds = varbinds;
+        }
+
+        @Override
+        public List<MaskElement> getMaskElements() {
+            return maskElements;
+        }
+
+        @Override
+        public List<Varbind> getVarbinds() {
+            return varbinds;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlyweightMask)) {
+                return false;
+            }
+            final FlyweightMask other = (FlyweightMask)o;
+            return maskElements.equals(other.maskElements) && varbinds.equals(other.varbinds);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(maskElements, varbinds);
+        }
+
+        @Override
+        public String toString() {
+            return "Mask{" + maskElements + ", varbinds=" + varbinds + '}';
+        }
+    }
+
+    private static final class FlyweightMaskElement implements MaskElement {
+        private final String name;
+        private final List<String> values;
+
+        private FlyweightMaskElement(String name, List<String> values) {
+            this.name = name;
+            this.values = values;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public List<String> getValues() {
+            return values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlyweightMaskElement)) {
+                return false;
+            }
+            final FlyweightMaskElement other = (FlyweightMaskElement)o;
+            return name.equals(other.name) && values.equals(other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, values);
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + values;
+        }
+    }
+
+    private static final class FlyweightVarbind implements Varbind {
+        private final int number;
+        private final List<String> values;
+
+        private FlyweightVarbind(int number, List<String> values) {
+            this.number = number;
+            this.values = values;
+        }
+
+        @Override
+        public Integer getNumber() {
+            return number;
+        }
+
+        @Override
+        public List<String> getValues() {
+            return values;
+        }
+
+        @Override
+        public String getTextualConvention() {
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlyweightVarbind)) {
+                return false;
+            }
+            final FlyweightVarbind other = (FlyweightVarbind)o;
+            return number == other.number && values.equals(other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * number + values.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "vb" + number + "=" + values;
+        }
+    }
+
+    private static final class FlyweightLogMessage implements LogMessage {
+        private final String content;
+        private final LogMsgDestType destination;
+
+        private FlyweightLogMessage(String content, LogMsgDestType destination) {
+            this.content = content;
+            this.destination = destination;
+        }
+
+        @Override
+        public String getContent() {
+            return content;
+        }
+
+        @Override
+        public LogMsgDestType getDestination() {
+            return destination;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlyweightLogMessage)) {
+                return false;
+            }
+            final FlyweightLogMessage other = (FlyweightLogMessage)o;
+            return Objects.equals(content, other.content) && destination == other.destination;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(content, destination);
+        }
+    }
+
+    private static final class FlyweightAlarmData implements AlarmData {
+        private final String reductionKey;
+
+        private FlyweightAlarmData(String reductionKey) {
+            this.reductionKey = reductionKey;
+        }
+
+        @Override
+        public String getReductionKey() {
+            return reductionKey;
+        }
+
+        @Override
+        public AlarmType getType() {
+            return AlarmType.PROBLEM_WITHOUT_RESOLUTION;
+        }
+
+        @Override
+        public String getClearKey() {
+            return null;
+        }
+
+        @Override
+        public boolean isAutoClean() {
+            return false;
+        }
+
+        @Override
+        public List<UpdateField> getUpdateFields() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public ManagedObject getManagedObject() {
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FlyweightAlarmData && Objects.equals(reductionKey, ((FlyweightAlarmData)o).reductionKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(reductionKey);
+        }
+    }
+
+    private static final class FlyweightParameter implements Parameter {
+        private final String name;
+        private final String value;
+        private final boolean expand;
+
+        private FlyweightParameter(String name, String value, boolean expand) {
+            this.name = name;
+            this.value = value;
+            this.expand = expand;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean shouldExpand() {
+            return expand;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlyweightParameter)) {
+                return false;
+            }
+            final FlyweightParameter other = (FlyweightParameter)o;
+            return name.equals(other.name) && Objects.equals(value, other.value) && expand == other.expand;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, value, expand);
+        }
+    }
+}
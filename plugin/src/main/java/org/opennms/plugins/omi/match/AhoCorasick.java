@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton that finds which of a fixed set of keywords occur in a text,
+ * in a single pass over the text.
+ */
+public class AhoCorasick {
+
+    private static final int[] NO_OUTPUT = new int[0];
+
+    // Per state: the characters with a goto transition (sorted), and the states they lead to
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] failure;
+    // Per state: the keywords that end here, including via the failure links
+    private final int[][] outputs;
+
+    private final int keywordCount;
+
+    public AhoCorasick(List<String> keywords) {
+        keywordCount = keywords.size();
+
+        // Build the trie
+        final List<StringBuilder> trieLabels = new ArrayList<>();
+        final List<List<Integer>> trieTargets = new ArrayList<>();
+        final List<List<Integer>> trieOutputs = new ArrayList<>();
+        trieLabels.add(new StringBuilder());
+        trieTargets.add(new ArrayList<>());
+        trieOutputs.add(new ArrayList<>());
+        for (int k = 0; k < keywords.size(); k++) {
+            final String keyword = keywords.get(k);
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                final int pos = trieLabels.get(state).indexOf(String.valueOf(keyword.charAt(i)));
+                if (pos >= 0) {
+                    state = trieTargets.get(state).get(pos);
+                } else {
+                    trieLabels.get(state).append(keyword.charAt(i));
+                    trieTargets.get(state).add(trieLabels.size());
+                    state = trieLabels.size();
+                    trieLabels.add(new StringBuilder());
+                    trieTargets.add(new ArrayList<>());
+                    trieOutputs.add(new ArrayList<>());
+                }
+            }
+            trieOutputs.get(state).add(k);
+        }
+
+        final int stateCount = trieLabels.size();
+        labels = new char[stateCount][];
+        targets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            // Sort the transitions by character for binary search
+            final String stateLabels = trieLabels.get(state).toString();
+            final Integer[] order = new Integer[stateLabels.length()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Character.compare(stateLabels.charAt(a), stateLabels.charAt(b)));
+            labels[state] = new char[order.length];
+            targets[state] = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                labels[state][i] = stateLabels.charAt(order[i]);
+                targets[state][i] = trieTargets.get(state).get(order[i]);
+            }
+        }
+
+        // Compute the failure links breadth-first, merging the outputs along them
+        failure = new int[stateCount];
+        outputs = new int[stateCount][];
+        outputs[0] = toArray(trieOutputs.get(0));
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            failure[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            final List<Integer> stateOutputs = new ArrayList<>(trieOutputs.get(state));
+            for (int output : outputs[failure[state]]) {
+                stateOutputs.add(output);
+            }
+            outputs[state] = toArray(stateOutputs);
+            for (int i = 0; i < labels[state].length; i++) {
+                final int child = targets[state][i];
+                int fallback = failure[state];
+                int next = transition(fallback, labels[state][i]);
+                while (next < 0 && fallback != 0) {
+                    fallback = failure[fallback];
+                    next = transition(fallback, labels[state][i]);
+                }
+                failure[child] = next < 0 ? 0 : next;
+                queue.add(child);
+            }
+        }
+    }
+
+    public int getKeywordCount() {
+        return keywordCount;
+    }
+
+    /**
+     * @return the indexes of the keywords that occur in the text
+     */
+    public BitSet search(CharSequence text) {
+        final BitSet found = new BitSet(keywordCount);
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != 0) {
+                state = failure[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (int output : outputs[state]) {
+                found.set(output);
+            }
+        }
+        return found;
+    }
+
+    private int transition(int state, char c) {
+        final int pos = Arrays.binarySearch(labels[state], c);
+        return pos < 0 ? -1 : targets[state][pos];
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.isEmpty() ? NO_OUTPUT : list.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.plugins.omi.OmiEventConfExtension;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+
+/**
+ * Merges the trap definitions of a tier that differ only in the values allowed for a single
+ * varbind into one definition that allows all of them, since eventd accepts a varbind if any
+ * of its values matches.
+ *
+ * The merged definition takes the place of the first one and keeps its label, and with it
+ * its UEI, so the traps matched by the others are reported under that UEI. A definition is
+ * only moved ahead over ones that can never match the same trap, so every trap is still
+ * matched by a definition with the same severity, text and parameters as before.
+ */
+public final class ConditionMerger {
+
+    private ConditionMerger() {}
+
+    /**
+     * @param trapDefs the definitions of a single tier, in the order they are tried
+     * @return the definitions with the equivalent ones merged; the given definitions are not modified
+     */
+    public static List<OmiTrapDef> merge(List<OmiTrapDef> trapDefs) {
+        final List<OmiTrapDef> merged = new ArrayList<>(trapDefs.size());
+        for (OmiTrapDef trapDef : trapDefs) {
+            boolean absorbed = false;
+            for (int i = merged.size() - 1; i >= 0; i--) {
+                final OmiTrapDef earlier = merged.get(i);
+                final Integer ordinal = findMergeableOrdinal(earlier, trapDef);
+                if (ordinal != null) {
+                    merged.set(i, merge(earlier, trapDef, ordinal));
+                    absorbed = true;
+                    break;
+                }
+                if (HotRuleOrdering.mayMatchSameTrap(earlier, trapDef)) {
+                    break;
+                }
+            }
+            if (!absorbed) {
+                merged.add(trapDef);
+            }
+        }
+        return merged;
+    }
+
+    // The ordinal of the only varbind whose values differ, 0 if none do, or null if the definitions can't be merged
+    private static Integer findMergeableOrdinal(OmiTrapDef a, OmiTrapDef b) {
+        if (!hasSameOutcome(a, b)) {
+            return null;
+        }
+        final Map<Integer, List<String>> aValues = getValuesByOrdinal(a);
+        final Map<Integer, List<String>> bValues = getValuesByOrdinal(b);
+        if (aValues == null || bValues == null || !aValues.keySet().equals(bValues.keySet())) {
+            return null;
+        }
+        Integer ordinal = 0;
+        for (Map.Entry<Integer, List<String>> entry : aValues.entrySet()) {
+            final List<String> values = bValues.get(entry.getKey());
+            if (entry.getValue().equals(values)) {
+                continue;
+            }
+            if (ordinal != 0 || !areMergeable(entry.getValue()) || !areMergeable(values)) {
+                return null;
+            }
+            ordinal = entry.getKey();
+        }
+        return ordinal;
+    }
+
+    private static boolean hasSameOutcome(OmiTrapDef a, OmiTrapDef b) {
+        return a.getMatchType() == b.getMatchType()
+                && a.isCatchAll() == b.isCatchAll()
+                && a.isServerLogOnly() == b.isServerLogOnly()
+                && Objects.equals(a.getTrapTypeOid(), b.getTrapTypeOid())
+                && Objects.equals(normalize(a.getEnterpriseId()), normalize(b.getEnterpriseId()))
+                && Objects.equals(a.getGeneric(), b.getGeneric())
+                && Objects.equals(a.getSpecific(), b.getSpecific())
+                && Objects.equals(a.getSeverity(), b.getSeverity())
+                // Without a text, the label is used as the log message
+                && Objects.equals(a.getText(), b.getText()) && (a.getText() != null || Objects.equals(a.getLabel(), b.getLabel()))
+                && Objects.equals(a.getObject(), b.getObject())
+                && Objects.equals(a.getApplication(), b.getApplication())
+                && Objects.equals(a.getMsgGrp(), b.getMsgGrp())
+                && Objects.equals(a.getMsgKey(), b.getMsgKey())
+                && Objects.equals(a.getMsgKeyRelation(), b.getMsgKeyRelation())
+                && Objects.equals(a.getHelpText(), b.getHelpText());
+    }
+
+    // Values that assign user variables can't be merged, since the text may depend on them
+    private static boolean areMergeable(List<String> valueExpressions) {
+        for (String valueExpression : valueExpressions) {
+            final String value = OmiEventConfExtension.toVarbindValue(valueExpression);
+            if (value.startsWith(OmiEventConfExtension.BROKEN_VARBIND_VALUE_PREFIX) || value.contains("(?<")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Null if a varbind is constrained more than once
+    private static Map<Integer, List<String>> getValuesByOrdinal(OmiTrapDef trapDef) {
+        final Map<Integer, List<String>> values = new LinkedHashMap<>();
+        for (VarbindConstraint constraint : trapDef.getVarbindConstraints()) {
+            if (values.put(constraint.getVbOrdinal(), constraint.getValueExpressions()) != null) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    private static OmiTrapDef merge(OmiTrapDef trapDef, OmiTrapDef other, int ordinal) {
+        final OmiTrapDef merged = new OmiTrapDef();
+        merged.setMatchType(trapDef.getMatchType());
+        merged.setLabel(trapDef.getLabel());
+        merged.setTrapTypeOid(trapDef.getTrapTypeOid());
+        merged.setEnterpriseId(trapDef.getEnterpriseId());
+        merged.setGeneric(trapDef.getGeneric());
+        merged.setSpecific(trapDef.getSpecific());
+        merged.setSeverity(trapDef.getSeverity());
+        merged.setText(trapDef.getText());
+        merged.setObject(trapDef.getObject());
+        merged.setApplication(trapDef.getApplication());
+        merged.setMsgGrp(trapDef.getMsgGrp());
+        merged.setMsgKey(trapDef.getMsgKey());
+        merged.setMsgKeyRelation(trapDef.getMsgKeyRelation());
+        merged.setHelpText(trapDef.getHelpText());
+        merged.setServerLogOnly(trapDef.isServerLogOnly());
+        merged.setCatchAll(trapDef.isCatchAll());
+        for (VarbindConstraint constraint : trapDef.getVarbindConstraints()) {
+            final LinkedHashSet<String> values = new LinkedHashSet<>(constraint.getValueExpressions());
+            if (constraint.getVbOrdinal() == ordinal) {
+                for (VarbindConstraint otherConstraint : other.getVarbindConstraints()) {
+                    if (otherConstraint.getVbOrdinal() == ordinal) {
+                        values.addAll(otherConstraint.getValueExpressions());
+                    }
+                }
+            }
+            merged.addVarbindConstraint(new VarbindConstraint(constraint.getVbOrdinal(), new ArrayList<>(values)));
+        }
+        return merged;
+    }
+
+    private static String normalize(String enterpriseId) {
+        return enterpriseId == null ? null : MatchableTrap.normalizeOid(enterpriseId);
+    }
+}
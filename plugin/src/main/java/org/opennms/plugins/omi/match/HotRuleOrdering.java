@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+/**
+ * Reorders the trap definitions of a tier so that the ones that matched the most traps are
+ * tried first, without changing which definition matches any given trap.
+ *
+ * Since the first matching definition wins, a definition may only move ahead of the ones
+ * that can never match the same trap as it does, that is ones whose enterprise, generic or
+ * specific masks conflict with its own. Definitions whose masks overlap keep their relative
+ * order, as do the ones that never matched anything.
+ */
+public final class HotRuleOrdering {
+
+    private HotRuleOrdering() {}
+
+    /**
+     * @param trapDefs the definitions of a single tier, in the order they are tried
+     * @param hits the number of traps each definition matched
+     * @return the definitions, with the frequently matched ones moved forward where possible
+     */
+    public static List<OmiTrapDef> reorder(List<OmiTrapDef> trapDefs, ToLongFunction<OmiTrapDef> hits) {
+        final List<OmiTrapDef> ordered = new ArrayList<>(trapDefs);
+        final Map<OmiTrapDef, Long> moved = new IdentityHashMap<>();
+
+        // Move the hottest definitions first, so that they end up ahead of cooler ones
+        final List<OmiTrapDef> hot = trapDefs.stream()
+                .filter(trapDef -> hits.applyAsLong(trapDef) > 0)
+                .sorted(Comparator.comparingLong(hits).reversed())
+                .collect(Collectors.toList());
+        for (OmiTrapDef trapDef : hot) {
+            final long trapDefHits = hits.applyAsLong(trapDef);
+            final int from = indexOf(ordered, trapDef);
+            int to = from;
+            while (to > 0) {
+                final OmiTrapDef previous = ordered.get(to - 1);
+                final Long previousHits = moved.get(previous);
+                if ((previousHits != null && previousHits >= trapDefHits) || mayMatchSameTrap(previous, trapDef)) {
+                    break;
+                }
+                to--;
+            }
+            if (to < from) {
+                ordered.remove(from);
+                ordered.add(to, trapDef);
+            }
+            moved.put(trapDef, trapDefHits);
+        }
+        return ordered;
+    }
+
+    /**
+     * @return false only if no trap can match both definitions, judging by their masks
+     */
+    static boolean mayMatchSameTrap(OmiTrapDef a, OmiTrapDef b) {
+        if (a.getTrapTypeOid() != null || b.getTrapTypeOid() != null) {
+            // Not worth decomposing, these are never generated by the parser
+            return true;
+        }
+        return overlaps(normalize(a.getEnterpriseId()), normalize(b.getEnterpriseId()))
+                && overlaps(a.getGeneric(), b.getGeneric())
+                && overlaps(a.getSpecific(), b.getSpecific());
+    }
+
+    // A missing mask element matches anything
+    private static boolean overlaps(Object a, Object b) {
+        return a == null || b == null || Objects.equals(a, b);
+    }
+
+    private static String normalize(String enterpriseId) {
+        return enterpriseId == null ? null : MatchableTrap.normalizeOid(enterpriseId);
+    }
+
+    private static int indexOf(List<OmiTrapDef> trapDefs, OmiTrapDef trapDef) {
+        for (int i = 0; i < trapDefs.size(); i++) {
+            if (trapDefs.get(i) == trapDef) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not in the list: " + trapDef);
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.plugins.nnmi.TrapLogReplayer;
+import org.opennms.plugins.omi.snmp.TrapHelper;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * A trap reduced to what the event definition masks look at: the enterprise ID, the
+ * generic and specific trap numbers, and the values of the varbinds as eventd numbers them
+ * (i.e. without sysUpTime and snmpTrapOID).
+ */
+public class MatchableTrap {
+
+    static final String SNMP_TRAPS = ".1.3.6.1.6.3.1.1.5";
+    private static final String SYS_UPTIME = "." + SnmpConstants.sysUpTime;
+    private static final String SNMP_TRAP_OID = "." + SnmpConstants.snmpTrapOID;
+    private static final String SNMP_TRAP_ENTERPRISE = "." + SnmpConstants.snmpTrapEnterprise;
+
+    private final String enterpriseId;
+    private final int generic;
+    private final int specific;
+    private final List<String> varbindValues;
+
+    public MatchableTrap(String enterpriseId, int generic, int specific, List<String> varbindValues) {
+        this.enterpriseId = normalizeOid(Objects.requireNonNull(enterpriseId, "enterpriseId is required"));
+        this.generic = generic;
+        this.specific = specific;
+        this.varbindValues = Collections.unmodifiableList(new ArrayList<>(varbindValues));
+    }
+
+    public static MatchableTrap fromPdu(PDU pdu) {
+        final List<String> varbindValues = new ArrayList<>();
+        if (pdu instanceof PDUv1) {
+            final PDUv1 v1 = (PDUv1)pdu;
+            for (VariableBinding vb : v1.getVariableBindings()) {
+                varbindValues.add(toValueString(vb.getVariable()));
+            }
+            return new MatchableTrap(v1.getEnterprise().toString(), v1.getGenericTrap(), v1.getSpecificTrap(), varbindValues);
+        }
+
+        final Variable trapOid = pdu.getVariable(SnmpConstants.snmpTrapOID);
+        if (trapOid == null) {
+            throw new IllegalArgumentException("PDU has no snmpTrapOID varbind: " + pdu);
+        }
+        String snmpTrapEnterprise = null;
+        for (VariableBinding vb : pdu.getVariableBindings()) {
+            if (SnmpConstants.sysUpTime.equals(vb.getOid()) || SnmpConstants.snmpTrapOID.equals(vb.getOid())) {
+                continue;
+            }
+            if (SnmpConstants.snmpTrapEnterprise.equals(vb.getOid())) {
+                snmpTrapEnterprise = vb.getVariable().toString();
+            }
+            varbindValues.add(toValueString(vb.getVariable()));
+        }
+        return fromTrapTypeOid(trapOid.toString(), null, snmpTrapEnterprise, varbindValues);
+    }
+
+    public static MatchableTrap fromTrap(TrapLogReplayer.Trap trap) {
+        final List<String> varbindValues = new ArrayList<>();
+        String snmpTrapEnterprise = null;
+        for (TrapLogReplayer.TrapVarbind vb : trap.getVarbinds()) {
+            final String oid = normalizeOid(vb.getOid());
+            if (SYS_UPTIME.equals(oid) || SNMP_TRAP_OID.equals(oid)) {
+                continue;
+            }
+            if (SNMP_TRAP_ENTERPRISE.equals(oid)) {
+                snmpTrapEnterprise = vb.getValue();
+            }
+            varbindValues.add(vb.getValue());
+        }
+        return fromTrapTypeOid(trap.getTrapTypeOid(), trap.getEnterpriseOid(), snmpTrapEnterprise, varbindValues);
+    }
+
+    private static MatchableTrap fromTrapTypeOid(String trapTypeOid, String enterpriseOid, String snmpTrapEnterprise, List<String> varbindValues) {
+        final TrapHelper.TrapInfo trapInfo = TrapHelper.getTrapInfo(trapTypeOid);
+        final String enterpriseId;
+        if (enterpriseOid != null) {
+            // SNMPv1 traps carry their own enterprise
+            enterpriseId = enterpriseOid;
+        } else if (trapInfo.getEnterpriseId() != null) {
+            enterpriseId = trapInfo.getEnterpriseId().toString();
+        } else if (snmpTrapEnterprise != null) {
+            enterpriseId = snmpTrapEnterprise;
+        } else {
+            enterpriseId = SNMP_TRAPS;
+        }
+        return new MatchableTrap(enterpriseId, trapInfo.getGeneric(), trapInfo.getSpecific(), varbindValues);
+    }
+
+    private static String toValueString(Variable variable) {
+        return variable instanceof OID ? "." + variable : variable.toString();
+    }
+
+    static String normalizeOid(String oid) {
+        return oid.startsWith(".") ? oid : "." + oid;
+    }
+
+    /**
+     * @return the enterprise ID, with a leading dot
+     */
+    public String getEnterpriseId() {
+        return enterpriseId;
+    }
+
+    public int getGeneric() {
+        return generic;
+    }
+
+    public int getSpecific() {
+        return specific;
+    }
+
+    public List<String> getVarbindValues() {
+        return varbindValues;
+    }
+
+    /**
+     * @param number the 1-based varbind number used in the event definition masks
+     * @return the value of the varbind, or null if the trap has fewer varbinds
+     */
+    public String getVarbindValue(int number) {
+        return number >= 1 && number <= varbindValues.size() ? varbindValues.get(number - 1) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchableTrap{" +
+                "enterpriseId=" + enterpriseId +
+                ", generic=" + generic +
+                ", specific=" + specific +
+                ", varbindValues=" + varbindValues +
+                '}';
+    }
+}
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.opennms.plugins.omi.OmiDefinitionProvider;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+/**
+ * Counts how the traps evaluated by an {@link OmiTrapMatcher} were decided: for each trap
+ * definition the number of hits, the number of near-misses (the masks matched but the
+ * varbinds did not) and the time spent evaluating its varbind regexes, and for each
+ * {@link MatchType} tier the number of traps it decided.
+ *
+ * All of the counters are {@link LongAdder}s, so matchers on several threads can share an
+ * instance without contending on it.
+ */
+public class OmiMatchStatistics implements OmiMatchStatisticsMBean {
+
+    // Keyed by identity, as trap definitions don't implement equals()
+    private final Map<OmiTrapDef, RuleStatistics> ruleStatistics = new ConcurrentHashMap<>();
+    private final Map<MatchType, LongAdder> decidedByTier = new EnumMap<>(MatchType.class);
+    private final LongAdder traps = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+    private final LongAdder regexNanos = new LongAdder();
+
+    public OmiMatchStatistics() {
+        for (MatchType matchType : MatchType.values()) {
+            decidedByTier.put(matchType, new LongAdder());
+        }
+    }
+
+    /**
+     * Keeps the rule statistics in line with the definitions of the provider, dropping those of
+     * the definitions it no longer has whenever the policies are reloaded.
+     */
+    public OmiMatchStatistics(OmiDefinitionProvider definitionProvider) {
+        this();
+        definitionProvider.addListener(provider -> retainTrapDefs(provider.getTrapDefs()));
+    }
+
+    /**
+     * Drops the statistics of all rules but the given ones, so that rules that no longer exist
+     * don't show up next to the live ones.
+     */
+    public void retainTrapDefs(Collection<OmiTrapDef> trapDefs) {
+        final Set<OmiTrapDef> retained = Collections.newSetFromMap(new IdentityHashMap<>());
+        retained.addAll(trapDefs);
+        ruleStatistics.keySet().retainAll(retained);
+    }
+
+    void recordEvaluation(OmiTrapDef trapDef, boolean matched, long ruleRegexNanos) {
+        final RuleStatistics statistics = ruleStatistics.computeIfAbsent(trapDef, RuleStatistics::new);
+        if (matched) {
+            statistics.hits.increment();
+        } else {
+            statistics.nearMisses.increment();
+        }
+        if (ruleRegexNanos > 0) {
+            statistics.regexNanos.add(ruleRegexNanos);
+            regexNanos.add(ruleRegexNanos);
+        }
+    }
+
+    void recordDecision(OmiTrapDef trapDef) {
+        traps.increment();
+        if (trapDef == null) {
+            unmatched.increment();
+        } else {
+            decidedByTier.get(trapDef.getMatchType() != null ? trapDef.getMatchType() : MatchType.OTHER).increment();
+        }
+    }
+
+    /**
+     * @return the statistics of the rules that were evaluated at least once, sorted by the given order
+     */
+    public List<RuleStatistics> getRuleStatistics(Comparator<RuleStatistics> order, int limit) {
+        return ruleStatistics.values().stream()
+                .sorted(order)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the number of traps the definition matched
+     */
+    public long getHits(OmiTrapDef trapDef) {
+        final RuleStatistics statistics = ruleStatistics.get(trapDef);
+        return statistics == null ? 0 : statistics.getHits();
+    }
+
+    public long getDecidedCount(MatchType matchType) {
+        return decidedByTier.get(matchType).sum();
+    }
+
+    @Override
+    public long getTrapCount() {
+        return traps.sum();
+    }
+
+    @Override
+    public long getUnmatchedCount() {
+        return unmatched.sum();
+    }
+
+    @Override
+    public long getSuppressMatchedCount() {
+        return getDecidedCount(MatchType.SUPP_MATCH);
+    }
+
+    @Override
+    public long getMessageMatchedCount() {
+        return getDecidedCount(MatchType.MSG_MATCH);
+    }
+
+    @Override
+    public long getSuppressUnmatchedCount() {
+        return getDecidedCount(MatchType.SUPP_UNMATCH);
+    }
+
+    @Override
+    public long getMessageUnmatchedCount() {
+        return getDecidedCount(MatchType.MSG_UNMATCH);
+    }
+
+    @Override
+    public long getRegexTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(regexNanos.sum());
+    }
+
+    @Override
+    public String[] topRulesByHits(int limit) {
+        return toLines(getRuleStatistics(RuleStatistics.BY_HITS, limit));
+    }
+
+    @Override
+    public String[] topRulesByNearMisses(int limit) {
+        return toLines(getRuleStatistics(RuleStatistics.BY_NEAR_MISSES, limit));
+    }
+
+    @Override
+    public String[] topRulesByRegexTime(int limit) {
+        return toLines(getRuleStatistics(RuleStatistics.BY_REGEX_TIME, limit));
+    }
+
+    @Override
+    public void reset() {
+        ruleStatistics.clear();
+        decidedByTier.values().forEach(LongAdder::reset);
+        traps.reset();
+        unmatched.reset();
+        regexNanos.reset();
+    }
+
+    private static String[] toLines(List<RuleStatistics> statistics) {
+        return statistics.stream().map(RuleStatistics::toString).toArray(String[]::new);
+    }
+
+    public static class RuleStatistics {
+        public static final Comparator<RuleStatistics> BY_HITS = Comparator.comparingLong(RuleStatistics::getHits).reversed();
+        public static final Comparator<RuleStatistics> BY_NEAR_MISSES = Comparator.comparingLong(RuleStatistics::getNearMisses).reversed();
+        public static final Comparator<RuleStatistics> BY_REGEX_TIME = Comparator.comparingLong(RuleStatistics::getRegexNanos).reversed();
+
+        private final OmiTrapDef trapDef;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder nearMisses = new LongAdder();
+        private final LongAdder regexNanos = new LongAdder();
+
+        private RuleStatistics(OmiTrapDef trapDef) {
+            this.trapDef = trapDef;
+        }
+
+        public OmiTrapDef getTrapDef() {
+            return trapDef;
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getNearMisses() {
+            return nearMisses.sum();
+        }
+
+        public long getRegexNanos() {
+            return regexNanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s (%s/%s/%s): hits=%d near-misses=%d regex-time=%dus",
+                    trapDef.getMatchType(), trapDef.getLabel(), trapDef.getEnterpriseId(), trapDef.getGeneric(), trapDef.getSpecific(),
+                    getHits(), getNearMisses(), TimeUnit.NANOSECONDS.toMicros(getRegexNanos()));
+        }
+    }
+}
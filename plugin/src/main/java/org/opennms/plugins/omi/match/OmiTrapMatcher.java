@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import org.opennms.plugins.nnmi.TrapLogReplayer;
+import org.opennms.plugins.omi.OmiEventConfExtension;
+import org.opennms.plugins.omi.OmiPatternCompiler;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+
+/**
+ * Matches traps against OMi trap definitions directly, with the same outcome eventd
+ * has for the event definitions generated by {@link OmiEventConfExtension}: definitions are
+ * tried in the order SUPP_MATCH, MSG_MATCH, SUPP_UNMATCH, MSG_UNMATCH, with the catch-all
+ * definitions after all the others, and the first one that matches wins.
+ *
+ * Candidates are looked up in a {@link TrapDefIndex}, so each trap is only evaluated against
+ * the handful of definitions whose masks could possibly match it. Before running a varbind
+ * regex, the matcher checks that the value contains the literal substrings the pattern
+ * requires, using a single Aho-Corasick pass per varbind over the literals of all patterns.
+ *
+ * When given an {@link OmiMatchStatistics}, the matcher records the outcome of every candidate
+ * it evaluates and the tier that decided each trap.
+ *
+ * A matcher holds no per-trap state, so one instance can be used from several threads at once.
+ */
+public class OmiTrapMatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OmiTrapMatcher.class);
+
+    // Shorter literals reject too few values to be worth checking
+    private static final int MIN_PREFILTER_LITERAL_LENGTH = 3;
+
+    private final TrapDefIndex index;
+    private final Map<OmiTrapDef, Rule> rules = new IdentityHashMap<>();
+    private final Map<String, Integer> prefilterLiteralIds = new HashMap<>();
+    private final List<String> prefilterLiterals = new ArrayList<>();
+    private final AhoCorasick prefilter;
+    private final OmiMatchStatistics statistics;
+
+    public OmiTrapMatcher(List<OmiTrapDef> trapDefs) {
+        this(new TrapDefIndex(trapDefs));
+    }
+
+    public OmiTrapMatcher(TrapDefIndex index) {
+        this(index, null);
+    }
+
+    /**
+     * @param statistics where to record how each trap was decided, or null to skip recording
+     */
+    public OmiTrapMatcher(TrapDefIndex index, OmiMatchStatistics statistics) {
+        this.index = Objects.requireNonNull(index);
+        this.statistics = statistics;
+        final Map<String, ValueMatcher> valueMatchers = new HashMap<>();
+        for (OmiTrapDef trapDef : index.getTrapDefs()) {
+            rules.put(trapDef, new Rule(trapDef, valueMatchers, this));
+        }
+        prefilter = new AhoCorasick(prefilterLiterals);
+        LOG.debug("Compiled {} trap definitions using {} distinct varbind values and {} prefilter literals.",
+                rules.size(), valueMatchers.size(), prefilterLiterals.size());
+    }
+
+    public int getRuleCount() {
+        return index.size();
+    }
+
+    /**
+     * @return the first definition that matches the trap, or null if none do
+     */
+    public OmiTrapDef match(PDU pdu) {
+        return match(MatchableTrap.fromPdu(pdu));
+    }
+
+    /**
+     * @return the first definition that matches the trap, or null if none do
+     */
+    public OmiTrapDef match(TrapLogReplayer.Trap trap) {
+        return match(MatchableTrap.fromTrap(trap));
+    }
+
+    /**
+     * @return the first definition that matches the trap, or null if none do
+     */
+    public OmiTrapDef match(MatchableTrap trap) {
+        final VarbindScan scan = new VarbindScan(trap, statistics != null);
+        OmiTrapDef match = null;
+        for (OmiTrapDef candidate : index.getCandidates(trap)) {
+            scan.regexNanos = 0;
+            final boolean matched = rules.get(candidate).matches(scan);
+            if (statistics != null) {
+                statistics.recordEvaluation(candidate, matched, scan.regexNanos);
+            }
+            if (matched) {
+                match = candidate;
+                break;
+            }
+        }
+        if (statistics != null) {
+            statistics.recordDecision(match);
+        }
+        return match;
+    }
+
+    /**
+     * Matches varbind values the way eventd matches the values generated by
+     * {@link OmiEventConfExtension#toVarbindValue(String)}.
+     */
+    private ValueMatcher toValueMatcher(String omiValue) {
+        final String value = OmiEventConfExtension.toVarbindValue(omiValue);
+        if (value.startsWith(OmiEventConfExtension.BROKEN_VARBIND_VALUE_PREFIX)) {
+            return (scan, number, v) -> false;
+        }
+        if (value.startsWith("~")) {
+            final Pattern pattern = Pattern.compile(value.substring(1));
+            final int[] literalIds = OmiPatternCompiler.requiredLiterals(omiValue).stream()
+                    .filter(literal -> literal.length() >= MIN_PREFILTER_LITERAL_LENGTH)
+                    .mapToInt(this::getPrefilterLiteralId)
+                    .distinct()
+                    .toArray();
+            if (literalIds.length == 0) {
+                return (scan, number, v) -> scan.matches(pattern, v);
+            }
+            return (scan, number, v) -> scan.containsAll(number, literalIds) && scan.matches(pattern, v);
+        }
+        if (value.endsWith("%")) {
+            final String prefix = value.substring(0, value.length() - 1);
+            return (scan, number, v) -> v.startsWith(prefix);
+        }
+        return (scan, number, v) -> value.equals(v);
+    }
+
+    private int getPrefilterLiteralId(String literal) {
+        return prefilterLiteralIds.computeIfAbsent(literal, l -> {
+            prefilterLiterals.add(l);
+            return prefilterLiterals.size() - 1;
+        });
+    }
+
+    @FunctionalInterface
+    private interface ValueMatcher {
+        boolean matches(VarbindScan scan, int number, String value);
+    }
+
+    /**
+     * The prefilter literals found in the varbinds of a trap, scanned for on first use, and
+     * the time spent evaluating regexes against them when timing is enabled.
+     */
+    private class VarbindScan {
+        private final MatchableTrap trap;
+        private final boolean timed;
+        private BitSet[] literals;
+        private long regexNanos;
+
+        private VarbindScan(MatchableTrap trap, boolean timed) {
+            this.trap = trap;
+            this.timed = timed;
+        }
+
+        private boolean matches(Pattern pattern, String value) {
+            if (!timed) {
+                return pattern.matcher(value).matches();
+            }
+            final long start = System.nanoTime();
+            final boolean matches = pattern.matcher(value).matches();
+            regexNanos += System.nanoTime() - start;
+            return matches;
+        }
+
+        private boolean containsAll(int number, int[] literalIds) {
+            if (literals == null) {
+                literals = new BitSet[trap.getVarbindValues().size() + 1];
+            }
+            BitSet found = literals[number];
+            if (found == null) {
+                found = prefilter.search(trap.getVarbindValue(number));
+                literals[number] = found;
+            }
+            for (int literalId : literalIds) {
+                if (!found.get(literalId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Rule {
+        private final int[] varbindNumbers;
+        private final List<List<ValueMatcher>> varbindMatchers;
+
+        private Rule(OmiTrapDef trapDef, Map<String, ValueMatcher> valueMatchers, OmiTrapMatcher matcher) {
+            final List<VarbindConstraint> constraints = trapDef.getVarbindConstraints();
+            this.varbindNumbers = new int[constraints.size()];
+            this.varbindMatchers = new ArrayList<>(constraints.size());
+            for (int i = 0; i < constraints.size(); i++) {
+                varbindNumbers[i] = constraints.get(i).getVbOrdinal();
+                final List<ValueMatcher> matchers = new ArrayList<>();
+                for (String value : constraints.get(i).getValueExpressions()) {
+                    matchers.add(valueMatchers.computeIfAbsent(value, matcher::toValueMatcher));
+                }
+                varbindMatchers.add(Collections.unmodifiableList(matchers));
+            }
+        }
+
+        private boolean matches(VarbindScan scan) {
+            for (int i = 0; i < varbindNumbers.length; i++) {
+                final String value = scan.trap.getVarbindValue(varbindNumbers[i]);
+                if (value == null || !anyMatches(varbindMatchers.get(i), scan, varbindNumbers[i], value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean anyMatches(List<ValueMatcher> matchers, VarbindScan scan, int number, String value) {
+            for (ValueMatcher matcher : matchers) {
+                if (matcher.matches(scan, number, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+/**
+ * Hit counts per trap definition, saved from an {@link OmiMatchStatistics} so that they
+ * survive restarts and can be used to order the definitions, see {@link HotRuleOrdering}.
+ *
+ * The file has a line per definition with its hit count and its key, separated by a tab.
+ * Definitions are identified by their match type, masks and label, since they are parsed
+ * anew every time.
+ */
+public class RuleHitProfile {
+
+    private final Map<String, Long> hitsByRule;
+
+    private RuleHitProfile(Map<String, Long> hitsByRule) {
+        this.hitsByRule = hitsByRule;
+    }
+
+    public static RuleHitProfile load(File profileFile) throws IOException {
+        final Map<String, Long> hitsByRule = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(profileFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                try {
+                    hitsByRule.merge(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)), Long::sum);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid hit count in " + profileFile + ": " + line, e);
+                }
+            }
+        }
+        return new RuleHitProfile(hitsByRule);
+    }
+
+    /**
+     * Writes the hit counts of the rules that matched at least once.
+     */
+    public static void save(OmiMatchStatistics statistics, File profileFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(profileFile.toPath(), StandardCharsets.UTF_8)) {
+            for (OmiMatchStatistics.RuleStatistics ruleStatistics : statistics.getRuleStatistics(OmiMatchStatistics.RuleStatistics.BY_HITS, Integer.MAX_VALUE)) {
+                if (ruleStatistics.getHits() == 0) {
+                    break;
+                }
+                writer.write(Long.toString(ruleStatistics.getHits()));
+                writer.write('\t');
+                writer.write(toKey(ruleStatistics.getTrapDef()));
+                writer.newLine();
+            }
+        }
+    }
+
+    public long getHits(OmiTrapDef trapDef) {
+        return hitsByRule.getOrDefault(toKey(trapDef), 0L);
+    }
+
+    public int size() {
+        return hitsByRule.size();
+    }
+
+    private static String toKey(OmiTrapDef trapDef) {
+        // Labels may contain anything but line breaks and tabs are replaced, so that one rule stays on one line
+        return (trapDef.getMatchType() + "|" + trapDef.getEnterpriseId() + "|" + trapDef.getGeneric() + "|"
+                + trapDef.getSpecific() + "|" + trapDef.getLabel()).replaceAll("[\t\r\n]", " ");
+    }
+}
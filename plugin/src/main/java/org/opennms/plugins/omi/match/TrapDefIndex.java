@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.snmp.TrapHelper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Looks up the trap definitions that could match a trap, keyed on enterprise ID, generic
+ * and specific. A definition that leaves one of these out is a wildcard for it, so a lookup
+ * falls back to the wildcard keys as well.
+ *
+ * Candidates are returned in evaluation order: definitions are tried in the order SUPP_MATCH,
+ * MSG_MATCH, SUPP_UNMATCH, MSG_UNMATCH, keeping their policy order within each, and the
+ * catch-all definitions form a tier of their own after all the others.
+ */
+public class TrapDefIndex {
+
+    private static final List<MatchType> TIER_ORDER = Arrays.asList(MatchType.SUPP_MATCH, MatchType.MSG_MATCH, MatchType.SUPP_UNMATCH, MatchType.MSG_UNMATCH);
+
+    private static final int CANDIDATE_CACHE_SIZE = 10000;
+
+    private final List<OmiTrapDef> trapDefs;
+    private final Map<Key, int[]> ranksByKey = new HashMap<>();
+    private final OmiTrapDef[] rankedTrapDefs;
+
+    // Merged candidates for the keys of the traps seen so far
+    private final Cache<Key, List<OmiTrapDef>> candidateCache = CacheBuilder.newBuilder()
+            .maximumSize(CANDIDATE_CACHE_SIZE)
+            .build();
+
+    public TrapDefIndex(List<OmiTrapDef> trapDefs) {
+        this.trapDefs = Objects.requireNonNull(trapDefs);
+
+        final List<OmiTrapDef> ranked = new ArrayList<>();
+        for (OmiTrapDef trapDef : trapDefs) {
+            if (TIER_ORDER.contains(trapDef.getMatchType())) {
+                ranked.add(trapDef);
+            }
+        }
+        // Stable sort, so definitions keep their policy order within a tier
+        ranked.sort((a, b) -> {
+            if (a.isCatchAll() != b.isCatchAll()) {
+                return a.isCatchAll() ? 1 : -1;
+            }
+            return Integer.compare(TIER_ORDER.indexOf(a.getMatchType()), TIER_ORDER.indexOf(b.getMatchType()));
+        });
+        rankedTrapDefs = ranked.toArray(new OmiTrapDef[0]);
+
+        final Map<Key, List<Integer>> ranks = new HashMap<>();
+        for (int rank = 0; rank < rankedTrapDefs.length; rank++) {
+            ranks.computeIfAbsent(toKey(rankedTrapDefs[rank]), k -> new ArrayList<>()).add(rank);
+        }
+        ranks.forEach((key, r) -> ranksByKey.put(key, r.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * @return the definitions this index was built from
+     */
+    public List<OmiTrapDef> getTrapDefs() {
+        return trapDefs;
+    }
+
+    /**
+     * @return the number of definitions that can be matched, i.e. those with a known match type
+     */
+    public int size() {
+        return rankedTrapDefs.length;
+    }
+
+    /**
+     * Decomposes the trap OID the way trapd does, see {@link TrapHelper#getTrapInfo(String)}.
+     * Standard traps are looked up under snmpTraps.
+     */
+    public List<OmiTrapDef> getCandidates(String trapTypeOid) {
+        final TrapHelper.TrapInfo trapInfo = TrapHelper.getTrapInfo(trapTypeOid);
+        final String enterpriseId = trapInfo.getEnterpriseId() == null ? MatchableTrap.SNMP_TRAPS : trapInfo.getEnterpriseId().toString();
+        return getCandidates(enterpriseId, trapInfo.getGeneric(), trapInfo.getSpecific());
+    }
+
+    public List<OmiTrapDef> getCandidates(MatchableTrap trap) {
+        return getCandidates(trap.getEnterpriseId(), trap.getGeneric(), trap.getSpecific());
+    }
+
+    /**
+     * @return the definitions whose masks match the given enterprise ID, generic and specific, in evaluation order
+     */
+    public List<OmiTrapDef> getCandidates(String enterpriseId, int generic, int specific) {
+        final Key key = new Key(MatchableTrap.normalizeOid(Objects.requireNonNull(enterpriseId)), generic, specific);
+        try {
+            return candidateCache.get(key, () -> mergeCandidates(key));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private List<OmiTrapDef> mergeCandidates(Key key) {
+        final int[][] candidates = new int[8][];
+        int n = 0;
+        int total = 0;
+        for (String enterpriseId : new String[] { key.enterpriseId, null }) {
+            for (Integer generic : new Integer[] { key.generic, null }) {
+                for (Integer specific : new Integer[] { key.specific, null }) {
+                    final int[] ranks = ranksByKey.get(new Key(enterpriseId, generic, specific));
+                    if (ranks != null) {
+                        candidates[n++] = ranks;
+                        total += ranks.length;
+                    }
+                }
+            }
+        }
+        if (total == 0) {
+            return Collections.emptyList();
+        }
+
+        // Walk the candidate lists together in rank order
+        final List<OmiTrapDef> merged = new ArrayList<>(total);
+        final int[] positions = new int[n];
+        while (merged.size() < total) {
+            int next = -1;
+            for (int i = 0; i < n; i++) {
+                if (positions[i] < candidates[i].length
+                        && (next < 0 || candidates[i][positions[i]] < candidates[next][positions[next]])) {
+                    next = i;
+                }
+            }
+            merged.add(rankedTrapDefs[candidates[next][positions[next]++]]);
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    private static Key toKey(OmiTrapDef trapDef) {
+        String enterpriseId = trapDef.getEnterpriseId();
+        Integer generic = trapDef.getGeneric();
+        Integer specific = trapDef.getSpecific();
+        if (trapDef.getTrapTypeOid() != null) {
+            // Fill in whatever the definition leaves out from its trap OID
+            final TrapHelper.TrapInfo trapInfo = TrapHelper.getTrapInfo(trapDef.getTrapTypeOid());
+            if (enterpriseId == null) {
+                enterpriseId = trapInfo.getEnterpriseId() == null ? MatchableTrap.SNMP_TRAPS : trapInfo.getEnterpriseId().toString();
+            }
+            if (generic == null) {
+                generic = trapInfo.getGeneric();
+            }
+            if (specific == null) {
+                specific = trapInfo.getSpecific();
+            }
+        }
+        return new Key(enterpriseId == null ? null : MatchableTrap.normalizeOid(enterpriseId), generic, specific);
+    }
+
+    private static class Key {
+        private final String enterpriseId;
+        private final Integer generic;
+        private final Integer specific;
+
+        private Key(String enterpriseId, Integer generic, Integer specific) {
+            this.enterpriseId = enterpriseId;
+            this.generic = generic;
+            this.specific = specific;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key other = (Key) o;
+            return Objects.equals(enterpriseId, other.enterpriseId)
+                    && Objects.equals(generic, other.generic)
+                    && Objects.equals(specific, other.specific);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(enterpriseId, generic, specific);
+        }
+    }
+}
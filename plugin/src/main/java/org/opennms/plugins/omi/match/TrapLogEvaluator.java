@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.opennms.plugins.nnmi.TrapLogReplayer;
+import org.opennms.plugins.nnmi.TrapLogReplayer.Trap;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Classifies the traps of an NNMi trap log against a set of OMi trap definitions, in process
+ * and without sending anything. The log is parsed by a {@link TrapLogReplayer}, the traps are
+ * matched in batches on a pool of threads sharing one {@link OmiTrapMatcher}, and the outcomes
+ * are handed to the caller in the order of the log, on the calling thread.
+ *
+ * Each batch counts its own outcomes, and the counts are added to the {@link Report} as the
+ * batches are handed over, so the matching threads share nothing but the matcher. Only a few
+ * batches per thread are matched ahead of the caller.
+ *
+ * Given a baseline matcher, e.g. for the policies before a change, every trap is parsed once
+ * and matched against both, and the outcomes tell whether the two classify it differently.
+ */
+public class TrapLogEvaluator {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final OmiTrapMatcher matcher;
+    private final OmiTrapMatcher baseline;
+    private final int threads;
+
+    /**
+     * @param threads the number of threads matching traps
+     */
+    public TrapLogEvaluator(OmiTrapMatcher matcher, int threads) {
+        this(matcher, null, threads);
+    }
+
+    /**
+     * @param baseline the matcher to compare the outcomes with, or null
+     * @param threads the number of threads matching traps
+     */
+    public TrapLogEvaluator(OmiTrapMatcher matcher, OmiTrapMatcher baseline, int threads) {
+        this.matcher = Objects.requireNonNull(matcher);
+        this.baseline = baseline;
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param parseThreads the number of threads parsing the log, see {@link TrapLogReplayer#streamTraps(Consumer, int, boolean)}
+     * @param outcomeConsumer receives the outcome of every trap, in the order of the log
+     * @return the counts over all of the traps
+     */
+    public Report evaluate(TrapLogReplayer replayer, int parseThreads, Consumer<Outcome> outcomeConsumer) throws IOException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("omi-evaluate-%d")
+                .setDaemon(true)
+                .build());
+        final Report report = new Report(matcher.getRuleCount());
+        final Deque<Future<Batch>> inFlight = new ArrayDeque<>();
+        final List<Trap> traps = new ArrayList<>(BATCH_SIZE);
+        final long[] sequence = {0};
+        try {
+            replayer.streamTraps(trap -> {
+                traps.add(trap);
+                if (traps.size() == BATCH_SIZE) {
+                    submit(pool, inFlight, new ArrayList<>(traps), sequence[0]);
+                    sequence[0] += traps.size();
+                    traps.clear();
+                    while (inFlight.size() >= threads * 4) {
+                        handOver(inFlight.remove(), report, outcomeConsumer);
+                    }
+                }
+            }, parseThreads, true);
+            if (!traps.isEmpty()) {
+                submit(pool, inFlight, traps, sequence[0]);
+            }
+            while (!inFlight.isEmpty()) {
+                handOver(inFlight.remove(), report, outcomeConsumer);
+            }
+        } catch (EvaluationException e) {
+            throw new IOException("Failed to evaluate the traps", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return report;
+    }
+
+    private void submit(ExecutorService pool, Deque<Future<Batch>> inFlight, List<Trap> traps, long firstSequence) {
+        inFlight.add(pool.submit(() -> {
+            final Batch batch = new Batch(traps.size());
+            for (int i = 0; i < traps.size(); i++) {
+                final Trap trap = traps.get(i);
+                final MatchableTrap matchableTrap = MatchableTrap.fromTrap(trap);
+                final Outcome outcome = new Outcome(firstSequence + i, trap, matchableTrap, matcher.match(matchableTrap),
+                        baseline != null, baseline != null ? baseline.match(matchableTrap) : null);
+                batch.outcomes.add(outcome);
+                batch.counts.add(outcome);
+            }
+            return batch;
+        }));
+    }
+
+    private static void handOver(Future<Batch> future, Report report, Consumer<Outcome> outcomeConsumer) {
+        final Batch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EvaluationException(e);
+        } catch (ExecutionException e) {
+            throw new EvaluationException(e.getCause());
+        }
+        report.merge(batch.counts);
+        batch.outcomes.forEach(outcomeConsumer);
+    }
+
+    // Unwinds out of the trap consumer
+    private static class EvaluationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private EvaluationException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private static class Batch {
+        private final List<Outcome> outcomes;
+        private final Report counts = new Report(0);
+
+        private Batch(int size) {
+            outcomes = new ArrayList<>(size);
+        }
+    }
+
+    /**
+     * How a single trap was classified.
+     */
+    public static class Outcome {
+        private final long sequence;
+        private final Trap trap;
+        private final MatchableTrap matchableTrap;
+        private final OmiTrapDef trapDef;
+        private final OmiTrapDef baselineTrapDef;
+        private final boolean changed;
+
+        private Outcome(long sequence, Trap trap, MatchableTrap matchableTrap, OmiTrapDef trapDef, boolean compared, OmiTrapDef baselineTrapDef) {
+            this.sequence = sequence;
+            this.trap = trap;
+            this.matchableTrap = matchableTrap;
+            this.trapDef = trapDef;
+            this.baselineTrapDef = baselineTrapDef;
+            this.changed = compared && !isSameOutcome(baselineTrapDef, trapDef);
+        }
+
+        /**
+         * @return the 0-based position of the trap in the log
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Trap getTrap() {
+            return trap;
+        }
+
+        public MatchableTrap getMatchableTrap() {
+            return matchableTrap;
+        }
+
+        /**
+         * @return the definition that decided the trap, or null if none matched
+         */
+        public OmiTrapDef getTrapDef() {
+            return trapDef;
+        }
+
+        /**
+         * @return the definition that decided the trap in the baseline, or null if none matched or there is no baseline
+         */
+        public OmiTrapDef getBaselineTrapDef() {
+            return baselineTrapDef;
+        }
+
+        /**
+         * @return true if there is a baseline and it classifies the trap differently
+         */
+        public boolean isChanged() {
+            return changed;
+        }
+
+        public boolean isMatched() {
+            return trapDef != null;
+        }
+
+        public boolean isSuppressed() {
+            return trapDef != null && (trapDef.getMatchType() == MatchType.SUPP_MATCH || trapDef.getMatchType() == MatchType.SUPP_UNMATCH);
+        }
+
+        @Override
+        public String toString() {
+            final String decision = changed ? describeChange(baselineTrapDef, trapDef) : describe(trapDef);
+            return String.format("#%d %s (%s) -> %s", sequence, trap.getName(), signature(matchableTrap), decision);
+        }
+    }
+
+    /**
+     * The counts over a trap log: how many traps each tier decided, how often each definition
+     * matched and which kinds of traps no definition matched.
+     */
+    public static class Report {
+        private final int ruleCount;
+        private long traps;
+        private long unmatched;
+        private final Map<MatchType, Long> decidedByTier = new EnumMap<>(MatchType.class);
+        // Keyed by identity, as trap definitions don't implement equals()
+        private final Map<OmiTrapDef, Long> hits = new IdentityHashMap<>();
+        private final Map<String, Long> unmatchedBySignature = new HashMap<>();
+        private long changed;
+        private final Map<String, Long> changes = new HashMap<>();
+
+        private Report(int ruleCount) {
+            this.ruleCount = ruleCount;
+        }
+
+        private void add(Outcome outcome) {
+            traps++;
+            if (outcome.trapDef == null) {
+                unmatched++;
+                unmatchedBySignature.merge(signature(outcome.matchableTrap), 1L, Long::sum);
+            } else {
+                decidedByTier.merge(outcome.trapDef.getMatchType(), 1L, Long::sum);
+                hits.merge(outcome.trapDef, 1L, Long::sum);
+            }
+            if (outcome.changed) {
+                changed++;
+                changes.merge(describeChange(outcome.baselineTrapDef, outcome.trapDef), 1L, Long::sum);
+            }
+        }
+
+        private void merge(Report other) {
+            traps += other.traps;
+            unmatched += other.unmatched;
+            other.decidedByTier.forEach((k, v) -> decidedByTier.merge(k, v, Long::sum));
+            other.hits.forEach((k, v) -> hits.merge(k, v, Long::sum));
+            other.unmatchedBySignature.forEach((k, v) -> unmatchedBySignature.merge(k, v, Long::sum));
+            changed += other.changed;
+            other.changes.forEach((k, v) -> changes.merge(k, v, Long::sum));
+        }
+
+        public long getTrapCount() {
+            return traps;
+        }
+
+        public long getUnmatchedCount() {
+            return unmatched;
+        }
+
+        public long getSuppressedCount() {
+            return getDecidedCount(MatchType.SUPP_MATCH) + getDecidedCount(MatchType.SUPP_UNMATCH);
+        }
+
+        public long getDecidedCount(MatchType matchType) {
+            return decidedByTier.getOrDefault(matchType, 0L);
+        }
+
+        public long getHits(OmiTrapDef trapDef) {
+            return hits.getOrDefault(trapDef, 0L);
+        }
+
+        /**
+         * @return the number of definitions evaluated against
+         */
+        public int getRuleCount() {
+            return ruleCount;
+        }
+
+        /**
+         * @return the number of definitions that matched at least one trap
+         */
+        public int getRulesHitCount() {
+            return hits.size();
+        }
+
+        /**
+         * @return the definitions with the most hits, most first, and by label when tied
+         */
+        public List<Map.Entry<OmiTrapDef, Long>> getTopRules(int limit) {
+            return top(hits, Comparator.comparing(OmiTrapDef::getLabel, Comparator.nullsLast(Comparator.naturalOrder())), limit);
+        }
+
+        /**
+         * @return the enterprise/generic/specific of the most frequent unmatched traps, most first
+         */
+        public List<Map.Entry<String, Long>> getTopUnmatched(int limit) {
+            return top(unmatchedBySignature, Comparator.naturalOrder(), limit);
+        }
+
+        /**
+         * @return the number of traps the baseline classifies differently
+         */
+        public long getChangedCount() {
+            return changed;
+        }
+
+        /**
+         * @return the most frequent changes, as "baseline outcome => outcome", most first
+         */
+        public List<Map.Entry<String, Long>> getTopChanges(int limit) {
+            return top(changes, Comparator.naturalOrder(), limit);
+        }
+
+        // Ties are broken by key, so that the result doesn't depend on the iteration order of the map
+        private static <K> List<Map.Entry<K, Long>> top(Map<K, Long> counts, Comparator<? super K> tieBreak, int limit) {
+            return counts.entrySet().stream()
+                    .sorted(Map.Entry.<K, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey(tieBreak)))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Definitions from different policy snapshots are different objects, so they are compared
+     * by what they make of a trap: the tier, the UEI, the priority and the event's contents,
+     * including the operator instructions.
+     */
+    static boolean isSameOutcome(OmiTrapDef a, OmiTrapDef b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getMatchType() == b.getMatchType()
+                && a.isServerLogOnly() == b.isServerLogOnly()
+                && a.isCatchAll() == b.isCatchAll()
+                && Objects.equals(a.getHelpText(), b.getHelpText())
+                && Objects.equals(a.getLabel(), b.getLabel())
+                && Objects.equals(a.getSeverity(), b.getSeverity())
+                && Objects.equals(a.getText(), b.getText())
+                && Objects.equals(a.getObject(), b.getObject())
+                && Objects.equals(a.getApplication(), b.getApplication())
+                && Objects.equals(a.getMsgGrp(), b.getMsgGrp())
+                && Objects.equals(a.getMsgKey(), b.getMsgKey())
+                && Objects.equals(a.getMsgKeyRelation(), b.getMsgKeyRelation());
+    }
+
+    private static String describeChange(OmiTrapDef from, OmiTrapDef to) {
+        final String change = describe(from) + " => " + describe(to);
+        // The same rule, with a different severity, text or parameters
+        return describe(from).equals(describe(to)) ? change + " (event changed)" : change;
+    }
+
+    private static String describe(OmiTrapDef trapDef) {
+        return trapDef == null ? "unmatched" : trapDef.getMatchType().getLabel() + " " + trapDef.getLabel();
+    }
+
+    static String signature(MatchableTrap trap) {
+        return trap.getEnterpriseId() + "/" + trap.getGeneric() + "/" + trap.getSpecific();
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.shell;
+
+import java.util.List;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.plugins.omi.OmiDefinitionProvider;
+import org.opennms.plugins.omi.analysis.RuleAnalyzer;
+import org.opennms.plugins.omi.analysis.RuleAnalyzer.Finding;
+import org.opennms.plugins.omi.analysis.RuleAnalyzer.FindingType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+@Command(scope = "omi", name = "analyze", description = "Find OMi rules that are duplicated, shadowed by an earlier rule or can never match")
+@Service
+public class OmiAnalyze implements Action {
+
+    @Reference
+    private OmiDefinitionProvider omiDefinitionProvider;
+
+    @Option(name = "-t", aliases = "--type", description = "only show findings of this type: duplicate, shadowed or never-matches")
+    private String type;
+
+    @Override
+    public Object execute() {
+        final FindingType onlyType = type != null ? FindingType.valueOf(type.toUpperCase().replace('-', '_')) : null;
+        final List<OmiTrapDef> trapDefs = omiDefinitionProvider.getTrapDefs();
+        final List<Finding> findings = RuleAnalyzer.analyze(trapDefs);
+        for (Finding finding : findings) {
+            if (onlyType == null || finding.getType() == onlyType) {
+                System.out.println(finding);
+            }
+        }
+
+        System.out.printf("\n%d of %d rules can be left out:\n", findings.size(), trapDefs.size());
+        for (FindingType findingType : FindingType.values()) {
+            System.out.printf("  %-15s %d\n", findingType, findings.stream().filter(f -> f.getType() == findingType).count());
+        }
+        return null;
+    }
+}
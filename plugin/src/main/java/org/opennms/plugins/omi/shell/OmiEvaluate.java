@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.plugins.nnmi.TrapLogReplayer;
+import org.opennms.plugins.omi.DefaultOmiDefinitionProvider;
+import org.opennms.plugins.omi.OmiDefinitionProvider;
+import org.opennms.plugins.omi.match.OmiTrapMatcher;
+import org.opennms.plugins.omi.match.TrapLogEvaluator;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+@Command(scope = "omi", name = "evaluate", description = "Classify the traps of an NNMi trap log against the OMi policies, without sending them")
+@Service
+public class OmiEvaluate implements Action {
+
+    @Reference
+    private OmiDefinitionProvider definitionProvider;
+
+    @Option(name = "-f", description = "log file", required = true)
+    private String logFile;
+
+    @Option(name = "--policies", description = "directory with the policy files to evaluate against, instead of the ones loaded in the plugin")
+    private String policyRoot;
+
+    @Option(name = "--catch-all-files", description = "comma-separated names of the catch-all policy files in the --policies directory")
+    private String catchAllFiles = "";
+
+    @Option(name = "--baseline", description = "directory with the policy files before a change; only the traps they classify differently are written or printed")
+    private String baselineRoot;
+
+    @Option(name = "--baseline-catch-all-files", description = "comma-separated names of the catch-all policy files in the --baseline directory")
+    private String baselineCatchAllFiles = "";
+
+    @Option(name = "-t", aliases = "--threads", description = "number of threads matching traps")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-p", aliases = "--parse-threads", description = "number of threads used to parse the trap log")
+    private int parseThreads = 1;
+
+    @Option(name = "-o", aliases = "--output", description = "write the outcome of every trap to this file")
+    private String outputFile;
+
+    @Option(name = "-v", aliases = "--verbose", description = "print the outcome of every trap")
+    private boolean verbose = false;
+
+    @Option(name = "-u", aliases = "--unmatched-only", description = "only write or print the outcome of the traps that no rule matched")
+    private boolean unmatchedOnly = false;
+
+    @Option(name = "-n", aliases = "--limit", description = "number of rules and unmatched kinds of traps to show")
+    private int limit = 10;
+
+    @Override
+    public Object execute() throws IOException {
+        final File trapLogFile = new File(logFile);
+        if (!trapLogFile.canRead()) {
+            throw new IOException("Cannot read: " + logFile);
+        }
+        final OmiTrapMatcher matcher = policyRoot != null
+                ? new OmiTrapMatcher(new DefaultOmiDefinitionProvider(new File(policyRoot), catchAllFiles).getTrapDefIndex())
+                : new OmiTrapMatcher(definitionProvider.getTrapDefIndex());
+        final OmiTrapMatcher baseline = baselineRoot != null
+                ? new OmiTrapMatcher(new DefaultOmiDefinitionProvider(new File(baselineRoot), baselineCatchAllFiles).getTrapDefIndex())
+                : null;
+
+        final long startedAt = System.nanoTime();
+        final TrapLogEvaluator.Report report;
+        try (Writer writer = outputFile != null ? Files.newBufferedWriter(new File(outputFile).toPath(), StandardCharsets.UTF_8) : null) {
+            try {
+                report = new TrapLogEvaluator(matcher, baseline, threads).evaluate(new TrapLogReplayer(trapLogFile), parseThreads, outcome -> {
+                    if ((baseline != null && !outcome.isChanged()) || (unmatchedOnly && outcome.isMatched())) {
+                        return;
+                    }
+                    if (verbose) {
+                        System.out.println(outcome);
+                    }
+                    if (writer != null) {
+                        try {
+                            writer.write(outcome.toString());
+                            writer.write('\n');
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                // A failed write to the output file
+                throw e.getCause();
+            }
+        }
+        final long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+
+        System.out.printf("Evaluated %d traps against %d rules in %.1fs (%.0f traps/s).\n", report.getTrapCount(), report.getRuleCount(),
+                elapsedMs / 1000d, report.getTrapCount() * 1000d / elapsedMs);
+        for (MatchType matchType : MatchType.values()) {
+            System.out.printf("  %-20s %d\n", matchType.getLabel(), report.getDecidedCount(matchType));
+        }
+        System.out.printf("  %-20s %d\n", "unmatched", report.getUnmatchedCount());
+        System.out.printf("%d traps suppressed. %d of %d rules (%.1f%%) matched at least one trap.\n", report.getSuppressedCount(),
+                report.getRulesHitCount(), report.getRuleCount(), report.getRuleCount() > 0 ? report.getRulesHitCount() * 100d / report.getRuleCount() : 0);
+
+        System.out.println("\nMost matched rules:");
+        for (Map.Entry<OmiTrapDef, Long> entry : report.getTopRules(limit)) {
+            System.out.printf("  %8d %s %s\n", entry.getValue(), entry.getKey().getMatchType().getLabel(), entry.getKey().getLabel());
+        }
+        System.out.println("\nMost frequent unmatched traps (enterprise/generic/specific):");
+        for (Map.Entry<String, Long> entry : report.getTopUnmatched(limit)) {
+            System.out.printf("  %8d %s\n", entry.getValue(), entry.getKey());
+        }
+        if (baseline != null) {
+            System.out.printf("\n%d traps (%.2f%%) are classified differently than by the baseline:\n", report.getChangedCount(),
+                    report.getTrapCount() > 0 ? report.getChangedCount() * 100d / report.getTrapCount() : 0);
+            for (Map.Entry<String, Long> entry : report.getTopChanges(limit)) {
+                System.out.printf("  %8d %s\n", entry.getValue(), entry.getKey());
+            }
+        }
+        if (outputFile != null) {
+            System.out.printf("\nWrote the outcomes to %s.\n", outputFile);
+        }
+        return null;
+    }
+}
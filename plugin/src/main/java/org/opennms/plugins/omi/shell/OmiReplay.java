@@ -31,22 +31,31 @@ package org.opennms.plugins.omi.shell;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.plugins.nnmi.ParallelTrapSender;
+import org.opennms.plugins.nnmi.PipelinedTrapReplay;
+import org.opennms.plugins.nnmi.TrapCorpus;
 import org.opennms.plugins.nnmi.TrapLogReplayer;
+import org.opennms.plugins.nnmi.TrapReplayScheduler;
+import org.opennms.plugins.omi.OmiDefinitionProvider;
+import org.opennms.plugins.omi.match.OmiMatchStatistics;
+import org.opennms.plugins.omi.match.OmiTrapMatcher;
 import org.snmp4j.CommunityTarget;
-import org.snmp4j.Snmp;
-import org.snmp4j.TransportMapping;
 import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.UdpAddress;
-import org.snmp4j.transport.DefaultUdpTransportMapping;
 
 import com.google.common.io.Files;
 
@@ -54,6 +63,12 @@ import com.google.common.io.Files;
 @Service
 public class OmiReplay implements Action {
 
+    @Reference
+    private OmiDefinitionProvider definitionProvider;
+
+    @Reference
+    private OmiMatchStatistics statistics;
+
     @Option(name = "-o", description = "opennms host")
     private String opennmsHost = "127.0.0.1";
 
@@ -63,6 +78,42 @@ public class OmiReplay implements Action {
     @Option(name = "-i", description = "import file - used to generate an import instead of sending the traps")
     private String importFile;
 
+    @Option(name = "-r", aliases = "--rate", description = "target rate in traps per second, 0 sends as fast as possible")
+    private double rate = 0;
+
+    @Option(name = "-c", aliases = "--concurrency", description = "number of parallel senders")
+    private int concurrency = 1;
+
+    @Option(name = "-b", aliases = "--batch", description = "number of traps handed to a sender at once")
+    private int batchSize = 1;
+
+    @Option(name = "-q", aliases = "--quiet", description = "print periodic throughput and latency summaries instead of a line per trap")
+    private boolean quiet = false;
+
+    @Option(name = "--report-interval", description = "seconds between the summaries in quiet mode")
+    private int reportInterval = 5;
+
+    @Option(name = "-s", aliases = "--speed", description = "reproduce the original gaps between the traps, sped up by the given factor, i.e. 1, 10 or 100")
+    private double speed = 0;
+
+    @Option(name = "-p", aliases = "--parse-threads", description = "number of threads used to parse the trap log")
+    private int parseThreads = 1;
+
+    @Option(name = "-x", aliases = "--export-corpus", description = "corpus file - used to save the encoded traps instead of sending them")
+    private String corpusFile;
+
+    @Option(name = "--corpus", description = "the log file is a corpus saved with -x, whose traps are sent as they are")
+    private boolean fromCorpus = false;
+
+    @Option(name = "-m", aliases = "--match", description = "also match the traps against the OMi policies here, recording the statistics shown by omi:stats")
+    private boolean match = false;
+
+    @Option(name = "--pipeline", description = "parse, encode and send the traps on three threads connected by bounded queues, printing the progress of each")
+    private boolean pipeline = false;
+
+    @Option(name = "--queue-capacity", description = "number of traps each queue between two pipeline stages holds")
+    private int queueCapacity = 1024;
+
     @Override
     public Object execute() throws Exception {
         final File trapLogFile = new File(logFile);
@@ -70,9 +121,32 @@ public class OmiReplay implements Action {
             throw new IOException("Cannot read: " + logFile);
         }
 
-        // Create Transport Mapping
-        TransportMapping<UdpAddress> transport = new DefaultUdpTransportMapping();
-        transport.listen();
+        if (fromCorpus) {
+            replayCorpus(trapLogFile);
+            return null;
+        }
+
+        final TrapLogReplayer trapLogReplayer = new TrapLogReplayer(trapLogFile);
+        if (corpusFile != null) {
+            final long numTraps = TrapCorpus.export(trapLogReplayer, new File(corpusFile), new OctetString("public"), parseThreads);
+            System.out.printf("Wrote %d traps and %d nodes to %s.\n", numTraps, trapLogReplayer.getHostnameToAddress().size(), corpusFile);
+            return null;
+        }
+        if (importFile != null) {
+            final AtomicLong trapCounter = new AtomicLong(0);
+            trapLogReplayer.streamPdus((trap, pdu) -> {
+                if (trapCounter.incrementAndGet() % 1000 == 0) {
+                    System.out.printf("Processed %d traps.\n", trapCounter.get());
+                }
+            }, parseThreads, true);
+            writeImport(trapLogReplayer.getHostnameToAddress());
+            return null;
+        }
+
+        if (pipeline) {
+            replayPipelined(trapLogReplayer, new InetSocketAddress(InetAddress.getByName(opennmsHost), 162));
+            return null;
+        }
 
         // Create Target
         CommunityTarget cTarget = new CommunityTarget();
@@ -82,40 +156,118 @@ public class OmiReplay implements Action {
         cTarget.setTimeout(5000);
         cTarget.setRetries(2);
 
-        Snmp snmp = new Snmp(transport);
-
+        final long startedAt = System.nanoTime();
+        final ParallelTrapSender sender = new ParallelTrapSender(cTarget, concurrency, batchSize, rate);
+        final TrapReplayScheduler scheduler = speed > 0 ? new TrapReplayScheduler(speed) : null;
+        final OmiTrapMatcher matcher = match ? new OmiTrapMatcher(definitionProvider.getTrapDefIndex(), statistics) : null;
+        // Only needed for the summaries in quiet mode
+        final ScheduledExecutorService reporter = quiet ? Executors.newSingleThreadScheduledExecutor() : null;
         try {
-            TrapLogReplayer trapLogReplayer = new TrapLogReplayer(trapLogFile);
-            AtomicLong trapCounter = new AtomicLong(0);
+            if (reporter != null) {
+                reporter.scheduleAtFixedRate(() -> printSummary(sender, startedAt), reportInterval, reportInterval, TimeUnit.SECONDS);
+            }
+            final AtomicLong trapCounter = new AtomicLong(0);
             trapLogReplayer.streamPdus((trap,pdu)-> {
+                try {
+                    if (scheduler != null && scheduler.getDelayNanos(trap) > 0) {
+                        // Don't hold back the traps that are already due while we wait
+                        sender.flush();
+                        scheduler.awaitScheduledTime(trap);
+                    }
+                    if (!quiet) {
+                        if (trapCounter.incrementAndGet() % 1000  == 0) {
+                            System.out.printf("Processed %d traps.\n", trapCounter.get());
+                        }
+                        System.out.printf("Sending %s for %s\n", trap.getName(), trap.getReceivedFrom());
+                    }
+                    if (matcher != null) {
+                        matcher.match(trap);
+                    }
+                    sender.send(pdu);
+                } catch (InterruptedException e) {
+                    // The replayer stops reading once it sees the interrupt
+                    Thread.currentThread().interrupt();
+                }
+            }, parseThreads, true);
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+            sender.close();
+        }
+
+        printSummary(sender, startedAt);
+        return null;
+    }
+
+    private void replayPipelined(TrapLogReplayer trapLogReplayer, InetSocketAddress target) throws IOException, InterruptedException {
+        final PipelinedTrapReplay replay = new PipelinedTrapReplay(trapLogReplayer, target, new OctetString("public"), queueCapacity, rate);
+        replay.setParseThreads(parseThreads);
+        if (speed > 0) {
+            replay.setScheduler(new TrapReplayScheduler(speed));
+        }
+        final OmiTrapMatcher matcher = match ? new OmiTrapMatcher(definitionProvider.getTrapDefIndex(), statistics) : null;
+        final AtomicLong trapCounter = new AtomicLong(0);
+        replay.setTrapListener(trap -> {
+            if (!quiet) {
                 if (trapCounter.incrementAndGet() % 1000  == 0) {
                     System.out.printf("Processed %d traps.\n", trapCounter.get());
                 }
-                if (importFile != null) {
-                    // noop
-                    return;
-                }
                 System.out.printf("Sending %s for %s\n", trap.getName(), trap.getReceivedFrom());
-                // Send the PDU
-                try {
-                    snmp.send(pdu, cTarget);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-
+            }
+            if (matcher != null) {
+                matcher.match(trap);
+            }
+        });
 
-            if (importFile != null) {
-                final String provImport = generateImport(trapLogReplayer.getHostnameToAddress());
-                System.out.printf("Writing requisition for %d nodes to %s.\n", trapLogReplayer.getHostnameToAddress().size(), importFile);
-                Files.write(provImport.getBytes(StandardCharsets.UTF_8), new File(importFile));
+        final long startedAt = System.nanoTime();
+        // Only needed for the summaries in quiet mode
+        final ScheduledExecutorService reporter = quiet ? Executors.newSingleThreadScheduledExecutor() : null;
+        try {
+            if (reporter != null) {
+                reporter.scheduleAtFixedRate(() -> printStages(replay, startedAt), reportInterval, reportInterval, TimeUnit.SECONDS);
             }
+            replay.run();
         } finally {
-            snmp.close();
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
         }
+        printStages(replay, startedAt);
+    }
 
-        System.out.println();
-        return null;
+    private void replayCorpus(File trapCorpusFile) throws IOException {
+        if (importFile != null) {
+            writeImport(TrapCorpus.streamPackets(trapCorpusFile, packet -> {}));
+            return;
+        }
+        final long startedAt = System.nanoTime();
+        final TrapCorpus.SendResult result = TrapCorpus.send(trapCorpusFile, new InetSocketAddress(InetAddress.getByName(opennmsHost), 162), rate);
+        final double elapsedSeconds = (System.nanoTime() - startedAt) / (double)TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("Sent %d traps (%d failed) in %.1fs: %.1f traps/s.\n", result.getSent(), result.getFailed(),
+                elapsedSeconds, result.getSent() / Math.max(elapsedSeconds, 0.001));
+    }
+
+    private void writeImport(Map<String, InetAddress> hostnameToAddress) throws IOException {
+        final String provImport = generateImport(hostnameToAddress);
+        System.out.printf("Writing requisition for %d nodes to %s.\n", hostnameToAddress.size(), importFile);
+        Files.write(provImport.getBytes(StandardCharsets.UTF_8), new File(importFile));
+    }
+
+    private static void printSummary(ParallelTrapSender sender, long startedAt) {
+        final double elapsedSeconds = (System.nanoTime() - startedAt) / (double)TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("Sent %d traps (%d failed) in %.1fs: %.1f traps/s, latency mean %.2fms max %.2fms.\n",
+                sender.getSent(), sender.getFailed(), elapsedSeconds, sender.getSent() / Math.max(elapsedSeconds, 0.001),
+                sender.getMeanLatencyMs(), sender.getMaxLatencyMs());
+    }
+
+    private static void printStages(PipelinedTrapReplay replay, long startedAt) {
+        final double elapsedSeconds = (System.nanoTime() - startedAt) / (double)TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("Sent %d traps (%d failed) in %.1fs: %.1f traps/s.\n",
+                replay.getSent(), replay.getFailed(), elapsedSeconds, replay.getSent() / Math.max(elapsedSeconds, 0.001));
+        for (PipelinedTrapReplay.Stage stage : replay.getStages()) {
+            System.out.printf("  %s\n", stage);
+        }
     }
 
     private String generateImport(Map<String, InetAddress> hostnameToAddress) {
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.plugins.omi.match.OmiMatchStatistics;
+import org.opennms.plugins.omi.match.OmiMatchStatistics.RuleStatistics;
+import org.opennms.plugins.omi.match.RuleHitProfile;
+import org.opennms.plugins.omi.model.MatchType;
+
+@Command(scope = "omi", name = "stats", description = "Show how often each OMi rule matched and what it cost")
+@Service
+public class OmiStats implements Action {
+
+    @Reference
+    private OmiMatchStatistics statistics;
+
+    @Option(name = "-n", aliases = "--limit", description = "number of rules to show")
+    private int limit = 20;
+
+    @Option(name = "-s", aliases = "--sort", description = "sort the rules by hits, near-misses or regex-time")
+    private String sort = "hits";
+
+    @Option(name = "--save-profile", description = "save the hit counts to a profile file, to be used as omRuleOrderProfile")
+    private String profileFile;
+
+    @Option(name = "--reset", description = "reset the statistics after showing them")
+    private boolean reset = false;
+
+    @Override
+    public Object execute() throws IOException {
+        final Comparator<RuleStatistics> order;
+        switch (sort) {
+            case "hits":
+                order = RuleStatistics.BY_HITS;
+                break;
+            case "near-misses":
+                order = RuleStatistics.BY_NEAR_MISSES;
+                break;
+            case "regex-time":
+                order = RuleStatistics.BY_REGEX_TIME;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported sort order: " + sort);
+        }
+
+        System.out.printf("%d traps evaluated, %d unmatched, %dus spent in regexes.\n",
+                statistics.getTrapCount(), statistics.getUnmatchedCount(), statistics.getRegexTimeMicros());
+        for (MatchType matchType : MatchType.values()) {
+            System.out.printf("  %-20s %d\n", matchType.getLabel(), statistics.getDecidedCount(matchType));
+        }
+        System.out.println();
+        for (RuleStatistics ruleStatistics : statistics.getRuleStatistics(order, limit)) {
+            System.out.println(ruleStatistics);
+        }
+
+        if (profileFile != null) {
+            RuleHitProfile.save(statistics, new File(profileFile));
+            System.out.printf("Saved the hit counts to %s.\n", profileFile);
+        }
+        if (reset) {
+            statistics.reset();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Resources;
+
+public class MappedTrapLogReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canReadAcrossRegions() throws IOException {
+        final File nnmiTraps = temporaryFolder.newFile();
+        try (InputStream is = Resources.getResource("nnmi_traps").openStream()) {
+            Files.copy(is, nnmiTraps.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Small enough for most lines to be read from a remapped region
+        final List<TrapLogReplayer.Trap> traps = new ArrayList<>();
+        new MappedTrapLogReader(nnmiTraps, 160).streamTraps(traps::add);
+
+        assertThat(traps, hasSize(equalTo(2)));
+        assertThat(traps.get(0).getName(), equalTo("ospfOriginateLsa"));
+        assertThat(traps.get(0).getVarbinds(), hasSize(equalTo(8)));
+        assertThat(traps.get(0).getVarbinds().get(7).getValue(), equalTo("2018-11-19,00:00:53.185"));
+        assertThat(traps.get(1).getName(), equalTo("vmwVmHBDetected"));
+        assertThat(traps.get(1).getEnterpriseOid(), equalTo(".1.3.6.1.4.1.6876.4.1"));
+        assertThat(traps.get(1).getAgentAddress(), equalTo("10.0.0.1"));
+        assertThat(traps.get(1).getVarbinds(), hasSize(equalTo(3)));
+        assertThat(traps.get(1).getVarbinds().get(2).getValue(), equalTo("w"));
+    }
+
+    @Test
+    public void canSplitLinesLikeTheTrapLogPatterns() throws IOException {
+        final File trapLog = temporaryFolder.newFile();
+        Files.write(trapLog.toPath(), ("Trap linkDown (x) (.1.3.6.1.6.3.1.1.5.3) at November 19, 2018 12:00:53 AM EST from sw1\r\n" +
+                "Version: SNMPv2c\r\n" +
+                "Varbinds:\r\n" +
+                "state=HAS_VALUE type=OCTET STRING oid=.1.3.6.1.2.1.2.2.1.2.1 value=port value=1 ü\r\n" +
+                "state=HAS_VALUE type=INTEGER oid=.1.3.6.1.2.1.2.2.1.1.1 value=1").getBytes(StandardCharsets.UTF_8));
+
+        final List<TrapLogReplayer.Trap> traps = new ArrayList<>();
+        new MappedTrapLogReader(trapLog).streamTraps(traps::add);
+
+        assertThat(traps, hasSize(equalTo(1)));
+        final TrapLogReplayer.Trap trap = traps.get(0);
+        assertThat(trap.getName(), equalTo("linkDown (x)"));
+        assertThat(trap.getTrapTypeOid(), equalTo(".1.3.6.1.6.3.1.1.5.3"));
+        assertThat(trap.getReceivedFrom(), equalTo("sw1"));
+        assertThat(trap.getVersion(), equalTo("SNMPv2c"));
+        assertThat(trap.getVarbinds(), hasSize(equalTo(2)));
+        // The last separator wins, as with the greedy groups in the pattern
+        assertThat(trap.getVarbinds().get(0).getOid(), equalTo(".1.3.6.1.2.1.2.2.1.2.1 value=port"));
+        assertThat(trap.getVarbinds().get(0).getValue(), equalTo("1 ü"));
+        assertThat(trap.getVarbinds().get(1).getValue(), equalTo("1"));
+    }
+
+    @Test
+    public void canReuseTraps() throws IOException {
+        final File nnmiTraps = temporaryFolder.newFile();
+        try (InputStream is = Resources.getResource("nnmi_traps").openStream()) {
+            Files.copy(is, nnmiTraps.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        final List<TrapLogReplayer.Trap> traps = new ArrayList<>();
+        final List<String> descriptions = new ArrayList<>();
+        new MappedTrapLogReader(nnmiTraps).streamReusedTraps(trap -> {
+            traps.add(trap);
+            descriptions.add(trap.getName() + " " + trap.getVarbinds().size() + " " + trap.getVarbinds().get(trap.getVarbinds().size() - 1).getValue());
+        });
+
+        assertThat(traps, hasSize(equalTo(2)));
+        assertThat(traps.get(1), sameInstance(traps.get(0)));
+        assertThat(descriptions.get(0), equalTo("ospfOriginateLsa 8 2018-11-19,00:00:53.185"));
+        assertThat(descriptions.get(1), equalTo("vmwVmHBDetected 3 w"));
+    }
+}
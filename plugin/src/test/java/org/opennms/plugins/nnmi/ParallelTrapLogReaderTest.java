@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Resources;
+
+public class ParallelTrapLogReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canParseChunksInParallel() throws IOException {
+        // Repeat the sample log, numbering the traps so that we can tell them apart
+        final String nnmiTraps = Resources.toString(Resources.getResource("nnmi_traps"), StandardCharsets.UTF_8);
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            log.append(nnmiTraps.replace("Trap ospfOriginateLsa ", "Trap ospfOriginateLsa" + i + " ")
+                    .replace("Trap vmwVmHBDetected ", "Trap vmwVmHBDetected" + i + " ")).append('\n');
+        }
+        final File trapLog = temporaryFolder.newFile();
+        Files.write(trapLog.toPath(), log.toString().getBytes(StandardCharsets.UTF_8));
+
+        final List<String> expected = new ArrayList<>();
+        new MappedTrapLogReader(trapLog).streamTraps(t -> expected.add(describe(t)));
+        assertThat(expected.size(), equalTo(1000));
+
+        // Small chunks, most of which start somewhere in the middle of a trap
+        final List<String> ordered = new ArrayList<>();
+        new ParallelTrapLogReader(trapLog, 4, 1000).streamTraps(t -> ordered.add(describe(t)), true);
+        assertThat(ordered, equalTo(expected));
+
+        final List<String> unordered = new ArrayList<>();
+        new ParallelTrapLogReader(trapLog, 4, 1000).streamTraps(t -> unordered.add(describe(t)), false);
+        Collections.sort(unordered);
+        Collections.sort(expected);
+        assertThat(unordered, equalTo(expected));
+    }
+
+    private static String describe(TrapLogReplayer.Trap trap) {
+        return trap.getName() + " " + trap.getVersion() + " " + trap.getVarbinds().stream()
+                .map(TrapLogReplayer.TrapVarbind::getValue)
+                .collect(Collectors.joining(","));
+    }
+}
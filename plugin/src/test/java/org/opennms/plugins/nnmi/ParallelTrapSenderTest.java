@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+
+public class ParallelTrapSenderTest {
+
+    @Test(timeout = 30000)
+    public void canSendTrapsInParallelBatches() throws Exception {
+        final int numTraps = 200;
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(5000);
+            final AtomicInteger received = new AtomicInteger();
+            final Thread receiverThread = new Thread(() -> {
+                final DatagramPacket packet = new DatagramPacket(new byte[65535], 65535);
+                try {
+                    while (received.get() < numTraps) {
+                        receiver.receive(packet);
+                        received.incrementAndGet();
+                    }
+                } catch (SocketTimeoutException e) {
+                    // Stop waiting, the count is checked below
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            receiverThread.start();
+
+            final CommunityTarget target = new CommunityTarget();
+            target.setCommunity(new OctetString("public"));
+            target.setVersion(SnmpConstants.version2c);
+            target.setAddress(new UdpAddress(receiver.getLocalAddress(), receiver.getLocalPort()));
+
+            final ParallelTrapSender sender = new ParallelTrapSender(target, 4, 10, 0);
+            try {
+                for (int i = 0; i < numTraps; i++) {
+                    final PDU pdu = new PDU();
+                    pdu.setType(PDU.TRAP);
+                    pdu.add(new VariableBinding(SnmpConstants.snmpTrapOID, new OID(".1.3.6.1.4.1.5813.1." + i)));
+                    sender.send(pdu);
+                }
+            } finally {
+                sender.close();
+            }
+            receiverThread.join();
+
+            assertThat(sender.getSent(), equalTo((long)numTraps));
+            assertThat(sender.getFailed(), equalTo(0L));
+            assertThat(received.get(), equalTo(numTraps));
+        }
+    }
+}
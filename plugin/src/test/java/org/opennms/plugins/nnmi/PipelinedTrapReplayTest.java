@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.snmp4j.PDU;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Resources;
+
+public class PipelinedTrapReplayTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canReplayInStages() throws IOException, InterruptedException {
+        final File nnmiTraps = temporaryFolder.newFile();
+        try (InputStream is = Resources.getResource("nnmi_traps").openStream()) {
+            Files.copy(is, nnmiTraps.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(5000);
+            final PipelinedTrapReplay replay = new PipelinedTrapReplay(new TrapLogReplayer(nnmiTraps),
+                    new InetSocketAddress(receiver.getLocalAddress(), receiver.getLocalPort()), new OctetString("public"), 1, 0);
+            final List<String> names = new ArrayList<>();
+            replay.setTrapListener(trap -> names.add(trap.getName()));
+            replay.run();
+
+            assertThat(names.toString(), equalTo("[ospfOriginateLsa, vmwVmHBDetected]"));
+            assertThat(replay.getSent(), equalTo(2L));
+            assertThat(replay.getFailed(), equalTo(0L));
+            for (PipelinedTrapReplay.Stage stage : replay.getStages()) {
+                assertThat(stage.getName(), stage.getProcessed(), equalTo(2L));
+                assertThat(stage.getQueueDepth(), equalTo(0));
+            }
+
+            // The traps arrive in the order of the log, numbered by the encode stage
+            final String[] trapOids = { ".1.3.6.1.2.1.14.16.2.12", ".1.3.6.1.4.1.6876.4.1.0.4" };
+            for (int i = 0; i < 2; i++) {
+                final DatagramPacket packet = new DatagramPacket(new byte[65535], 65535);
+                receiver.receive(packet);
+                final BERInputStream in = new BERInputStream(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                BER.decodeHeader(in, new BER.MutableByte());
+                new Integer32().decodeBER(in);
+                new OctetString().decodeBER(in);
+                final PDU pdu = new PDU();
+                pdu.decodeBER(in);
+                assertThat(pdu.getRequestID().getValue(), equalTo(i + 1));
+                assertThat(pdu.getVariable(SnmpConstants.snmpTrapOID), equalTo(new OID(trapOids[i])));
+            }
+        }
+    }
+
+    @Test
+    public void rethrowsTheFailureOfAStage() throws IOException, InterruptedException {
+        // Long enough for the parse stage to still be reading when the encode stage fails
+        final String nnmiTraps = Resources.toString(Resources.getResource("nnmi_traps"), StandardCharsets.UTF_8) + "\n";
+        final File trapLog = temporaryFolder.newFile();
+        Files.write(trapLog.toPath(), Strings.repeat(nnmiTraps, 5000).getBytes(StandardCharsets.UTF_8));
+
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final PipelinedTrapReplay replay = new PipelinedTrapReplay(new TrapLogReplayer(trapLog),
+                    new InetSocketAddress(receiver.getLocalAddress(), receiver.getLocalPort()), new OctetString("public"), 16, 0);
+            final AtomicInteger numTraps = new AtomicInteger();
+            replay.setTrapListener(trap -> {
+                if (numTraps.incrementAndGet() == 100) {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            try {
+                replay.run();
+                fail("The failure of the encode stage should be rethrown");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage(), equalTo("boom"));
+            }
+            // Stopping the reader must not leave our thread interrupted
+            assertThat(Thread.interrupted(), equalTo(false));
+            assertThat(replay.getSent() < 10000, equalTo(true));
+        }
+    }
+
+    @Test
+    public void canWrapAroundRingBuffer() {
+        final SpscRingBuffer<Integer> queue = new SpscRingBuffer<>(3);
+        assertThat(queue.capacity(), equalTo(4));
+        for (int i = 0; i < 10; i++) {
+            assertThat(queue.offer(i), equalTo(true));
+            assertThat(queue.offer(i + 100), equalTo(true));
+            assertThat(queue.size(), equalTo(2));
+            assertThat(queue.poll(), equalTo(i));
+            assertThat(queue.poll(), equalTo(i + 100));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertThat(queue.offer(i), equalTo(true));
+        }
+        assertThat(queue.offer(4), equalTo(false));
+
+        queue.close();
+        assertThat(queue.isDrained(), equalTo(false));
+        for (int i = 0; i < 4; i++) {
+            assertThat(queue.poll(), equalTo(i));
+        }
+        assertThat(queue.poll(), nullValue());
+        assertThat(queue.isDrained(), equalTo(true));
+    }
+}
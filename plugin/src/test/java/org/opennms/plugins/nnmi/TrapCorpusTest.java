@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.snmp4j.PDU;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+
+import com.google.common.io.Resources;
+
+public class TrapCorpusTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canExportAndReplayCorpus() throws IOException {
+        final File nnmiTraps = temporaryFolder.newFile();
+        try (InputStream is = Resources.getResource("nnmi_traps").openStream()) {
+            Files.copy(is, nnmiTraps.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        final File corpus = temporaryFolder.newFile();
+        final long numTraps = TrapCorpus.export(new TrapLogReplayer(nnmiTraps), corpus, new OctetString("public"), 1);
+        assertThat(numTraps, equalTo(2L));
+
+        // The packets should decode to the same traps
+        final List<PDU> pdus = new ArrayList<>();
+        final Map<String, InetAddress> hostnameToAddress = TrapCorpus.streamPackets(corpus, packet -> pdus.add(decodeMessage(packet)));
+        assertThat(pdus, hasSize(equalTo(2)));
+        assertThat(pdus.get(0).getType(), equalTo(PDU.TRAP));
+        assertThat(pdus.get(0).getVariable(SnmpConstants.snmpTrapOID), equalTo(new OID(".1.3.6.1.2.1.14.16.2.12")));
+        assertThat(pdus.get(1).getVariable(SnmpConstants.snmpTrapOID), equalTo(new OID(".1.3.6.1.4.1.6876.4.1.0.4")));
+        assertThat(pdus.get(1).getVariable(new OID(".1.3.6.1.4.1.6876.2.1.1.2.810")), equalTo(new OctetString("w")));
+        assertThat(hostnameToAddress.size(), equalTo(2));
+        assertThat(hostnameToAddress.get("vmw"), equalTo(InetAddress.getByName("10.0.0.1")));
+
+        // And be sent as they are
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(5000);
+            final TrapCorpus.SendResult result = TrapCorpus.send(corpus, new InetSocketAddress(receiver.getLocalAddress(), receiver.getLocalPort()), 0);
+            assertThat(result.getSent(), equalTo(2L));
+            assertThat(result.getFailed(), equalTo(0L));
+            for (int i = 0; i < 2; i++) {
+                final DatagramPacket packet = new DatagramPacket(new byte[65535], 65535);
+                receiver.receive(packet);
+                final PDU pdu = decodeMessage(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                assertThat(pdu.getVariable(SnmpConstants.snmpTrapOID), equalTo(pdus.get(i).getVariable(SnmpConstants.snmpTrapOID)));
+            }
+        }
+    }
+
+    private static PDU decodeMessage(ByteBuffer packet) {
+        try {
+            final BERInputStream in = new BERInputStream(packet.slice());
+            BER.decodeHeader(in, new BER.MutableByte());
+            final Integer32 version = new Integer32();
+            version.decodeBER(in);
+            assertThat(version.getValue(), equalTo(SnmpConstants.version2c));
+            final OctetString community = new OctetString();
+            community.decodeBER(in);
+            assertThat(community.toString(), equalTo("public"));
+            final PDU pdu = new PDU();
+            pdu.decodeBER(in);
+            return pdu;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
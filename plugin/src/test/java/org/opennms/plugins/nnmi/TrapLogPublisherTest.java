@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Resources;
+
+public class TrapLogPublisherTest {
+
+    private static final String COMPLETE = "complete";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ExecutorService executor;
+    private TrapLogPublisher publisher;
+
+    @Before
+    public void setUp() throws IOException {
+        final File nnmiTraps = temporaryFolder.newFile();
+        try (InputStream is = Resources.getResource("nnmi_traps").openStream()) {
+            Files.copy(is, nnmiTraps.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        executor = Executors.newSingleThreadExecutor();
+        publisher = new TrapLogPublisher(nnmiTraps, executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void canPublishOnDemand() throws InterruptedException {
+        final RecordingSubscriber subscriber = new RecordingSubscriber(false);
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.signals.poll(10, TimeUnit.SECONDS), equalTo("ospfOriginateLsa"));
+        // Nothing more until it is requested
+        assertThat(subscriber.signals.poll(200, TimeUnit.MILLISECONDS), nullValue());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.signals.poll(10, TimeUnit.SECONDS), equalTo("vmwVmHBDetected"));
+        assertThat(subscriber.signals.poll(10, TimeUnit.SECONDS), equalTo(COMPLETE));
+    }
+
+    @Test
+    public void canCancel() throws InterruptedException {
+        final RecordingSubscriber subscriber = new RecordingSubscriber(true);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(10);
+
+        assertThat(subscriber.signals.poll(10, TimeUnit.SECONDS), equalTo("ospfOriginateLsa"));
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), equalTo(true));
+        // Neither the second trap nor the completion is signaled
+        assertThat(subscriber.signals.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void failsOnInvalidRequest() throws InterruptedException {
+        final RecordingSubscriber subscriber = new RecordingSubscriber(false);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertThat(subscriber.signals.poll(10, TimeUnit.SECONDS), equalTo("error"));
+        assertThat(subscriber.error, instanceOf(IllegalArgumentException.class));
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<TrapLogReplayer.Trap> {
+        private final boolean cancelOnFirst;
+        private final BlockingQueue<String> signals = new LinkedBlockingQueue<>();
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        private RecordingSubscriber(boolean cancelOnFirst) {
+            this.cancelOnFirst = cancelOnFirst;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(TrapLogReplayer.Trap trap) {
+            if (cancelOnFirst) {
+                subscription.cancel();
+            }
+            signals.add(trap.getName());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            signals.add("error");
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+    }
+}
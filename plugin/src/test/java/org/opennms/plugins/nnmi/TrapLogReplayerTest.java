@@ -46,6 +46,8 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.opennms.integration.api.v1.model.InMemoryEvent;
 import org.snmp4j.PDU;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
 
 import com.google.common.io.Resources;
 
@@ -90,4 +92,62 @@ public class TrapLogReplayerTest {
         PDU vmwVmHBDetectedPdu = trapLogReplayer.toPdu(vmwVmHBDetectedTrap);
         assertThat(vmwVmHBDetectedPdu, notNullValue());
     }
+
+    @Test
+    public void canAssignAgentAddressesWithoutResolving() throws IOException {
+        final TrapLogReplayer trapLogReplayer = new TrapLogReplayer(temporaryFolder.newFile());
+        final OID snmpTrapAddress = new OID(".1.3.6.1.6.3.18.1.3.0");
+
+        // Literal addresses are used as they are
+        assertThat(trapLogReplayer.toPdu(v1Trap("router1", "192.0.2.1")).getVariable(snmpTrapAddress),
+                equalTo(new IpAddress("192.0.2.1")));
+        // Anything else gets an address from the generated pool, without a lookup
+        assertThat(trapLogReplayer.toPdu(v1Trap("router2", "router2.invalid")).getVariable(snmpTrapAddress),
+                equalTo(new IpAddress("10.0.0.0")));
+        assertThat(trapLogReplayer.toPdu(v1Trap("router3", "127.0.0.1")).getVariable(snmpTrapAddress),
+                equalTo(new IpAddress("10.0.0.1")));
+        assertThat(trapLogReplayer.toPdu(v1Trap("router2", "router2.invalid")).getVariable(snmpTrapAddress),
+                equalTo(new IpAddress("10.0.0.0")));
+    }
+
+    @Test
+    public void canConvertIpAddressVarbindsWithoutResolving() throws IOException {
+        final TrapLogReplayer trapLogReplayer = new TrapLogReplayer(temporaryFolder.newFile());
+        final OID varbindOid = new OID(".1.3.6.1.4.1.5813.20.1");
+
+        final TrapLogReplayer.Trap trap = v1Trap("router1", "192.0.2.1");
+        trap.getVarbinds().add(ipAddressVarbind(varbindOid, "192.0.2.7"));
+        assertThat(trapLogReplayer.toPdu(trap).getVariable(varbindOid), equalTo(new IpAddress("192.0.2.7")));
+
+        // Names get an address from the generated pool, the same one every time, without becoming part of the inventory
+        trap.getVarbinds().set(0, ipAddressVarbind(varbindOid, "server1.invalid"));
+        assertThat(trapLogReplayer.toPdu(trap).getVariable(varbindOid), equalTo(new IpAddress("10.0.0.0")));
+        assertThat(trapLogReplayer.toPdu(trap).getVariable(varbindOid), equalTo(new IpAddress("10.0.0.0")));
+        assertThat(trapLogReplayer.getHostnameToAddress().containsKey("server1.invalid"), equalTo(false));
+
+        // Hosts that sent traps keep their address
+        assertThat(trapLogReplayer.toPdu(v1Trap("router2", "127.0.0.1")).getVariable(new OID(".1.3.6.1.6.3.18.1.3.0")),
+                equalTo(new IpAddress("10.0.0.1")));
+        trap.getVarbinds().set(0, ipAddressVarbind(varbindOid, "router2"));
+        assertThat(trapLogReplayer.toPdu(trap).getVariable(varbindOid), equalTo(new IpAddress("10.0.0.1")));
+    }
+
+    private static TrapLogReplayer.TrapVarbind ipAddressVarbind(OID oid, String value) {
+        final TrapLogReplayer.TrapVarbind vb = new TrapLogReplayer.TrapVarbind();
+        vb.setState("HAS_VALUE");
+        vb.setType("IpAddress");
+        vb.setOid(oid.toDottedString());
+        vb.setValue(value);
+        return vb;
+    }
+
+    private static TrapLogReplayer.Trap v1Trap(String receivedFrom, String agentAddress) {
+        final TrapLogReplayer.Trap trap = new TrapLogReplayer.Trap();
+        trap.setName("test");
+        trap.setTrapTypeOid(".1.3.6.1.4.1.5813.1.1");
+        trap.setVersion("SNMPv1");
+        trap.setReceivedFrom(receivedFrom);
+        trap.setAgentAddress(agentAddress);
+        return trap;
+    }
 }
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.nnmi;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TrapReplaySchedulerTest {
+
+    @Test
+    public void canReproduceGapsBetweenTraps() throws InterruptedException {
+        assertThat(TrapReplayScheduler.parseReceivedAt("November 19, 2018 12:00:53 AM EST"), equalTo(1542603653000L));
+
+        final TrapReplayScheduler scheduler = new TrapReplayScheduler(100);
+        final TrapLogReplayer.Trap first = trapReceivedAt("November 19, 2018 12:00:53 AM EST");
+        final TrapLogReplayer.Trap sameSecond = trapReceivedAt("November 19, 2018 12:00:53 AM EST");
+        final TrapLogReplayer.Trap tenSecondsLater = trapReceivedAt("November 19, 2018 12:01:03 AM EST");
+
+        assertThat(scheduler.getDelayNanos(first), lessThanOrEqualTo(0L));
+        assertThat(scheduler.getDelayNanos(sameSecond), lessThanOrEqualTo(0L));
+        // 10 seconds at 100x
+        final long delayNanos = scheduler.getDelayNanos(tenSecondsLater);
+        assertThat(delayNanos, greaterThan(0L));
+        assertThat(delayNanos, lessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)));
+
+        scheduler.awaitScheduledTime(tenSecondsLater);
+        assertThat(scheduler.getDelayNanos(tenSecondsLater), lessThanOrEqualTo(0L));
+    }
+
+    @Test
+    public void canSendUnparseableTrapsRightAway() {
+        final TrapReplayScheduler scheduler = new TrapReplayScheduler(1);
+        assertThat(scheduler.getDelayNanos(trapReceivedAt("November 19, 2018 12:00:53 AM EST")), lessThanOrEqualTo(0L));
+        assertThat(scheduler.getDelayNanos(trapReceivedAt("yesterday")), equalTo(0L));
+        // The following traps with the same time are sent right away too, and the ones after them are scheduled again
+        assertThat(scheduler.getDelayNanos(trapReceivedAt("yesterday")), equalTo(0L));
+        assertThat(scheduler.getDelayNanos(trapReceivedAt("November 19, 2018 12:01:53 AM EST")), greaterThan(0L));
+    }
+
+    private static TrapLogReplayer.Trap trapReceivedAt(String receivedAt) {
+        final TrapLogReplayer.Trap trap = new TrapLogReplayer.Trap();
+        trap.setName("test");
+        trap.setReceivedAt(receivedAt);
+        return trap;
+    }
+}
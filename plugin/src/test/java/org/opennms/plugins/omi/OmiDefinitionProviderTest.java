@@ -32,6 +32,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.core.IsEqual.equalTo;
 
@@ -41,12 +42,17 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.omi.match.TrapDefIndex;
+import org.opennms.plugins.omi.model.MatchType;
 import org.opennms.plugins.omi.model.OmiTrapDef;
 import org.opennms.plugins.omi.model.VarbindConstraint;
 import org.slf4j.Logger;
@@ -223,6 +229,144 @@ public class OmiDefinitionProviderTest {
         assertThat(trapDef.isCatchAll(), equalTo(true));
     }
 
+    @Test
+    public void canParsePolicyFilesInParallel() throws IOException {
+        for (String policyName : new String[] { "emc_test_policy_data", "netapp_test_policy_data", "netiq_test_policy_data",
+                "recoverpoint_test_policy_data", "tandberg_test_policy_data", "teamquest_test_policy_data" }) {
+            final File policyData = temporaryFolder.newFile(policyName);
+            try (InputStream is = Resources.getResource(policyName).openStream()) {
+                Files.copy(is, policyData.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        final List<OmiTrapDef> sequentialTrapDefs = new DefaultOmiDefinitionProvider(temporaryFolder.getRoot(), "netapp_test_policy_data", 1).getTrapDefs();
+        final List<OmiTrapDef> parallelTrapDefs = new DefaultOmiDefinitionProvider(temporaryFolder.getRoot(), "netapp_test_policy_data", 4).getTrapDefs();
+
+        // The results should be merged in the same order as when parsing sequentially
+        assertThat(parallelTrapDefs, hasSize(equalTo(sequentialTrapDefs.size())));
+        for (int i = 0; i < sequentialTrapDefs.size(); i++) {
+            assertThat(parallelTrapDefs.get(i).toString(), equalTo(sequentialTrapDefs.get(i).toString()));
+            assertThat(parallelTrapDefs.get(i).isCatchAll(), equalTo(sequentialTrapDefs.get(i).isCatchAll()));
+        }
+    }
+
+    @Test
+    public void canReloadChangedPolicyFiles() throws Exception {
+        final File netappPolicyData = temporaryFolder.newFile("netapp_test_policy_data");
+        try (InputStream is = Resources.getResource("netapp_test_policy_data").openStream()) {
+            Files.copy(is, netappPolicyData.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        final DefaultOmiDefinitionProvider omiDefProvider = new DefaultOmiDefinitionProvider(temporaryFolder.getRoot(), "");
+        final LinkedBlockingQueue<List<OmiTrapDef>> changes = new LinkedBlockingQueue<>();
+        omiDefProvider.addListener(provider -> changes.add(provider.getTrapDefs()));
+        omiDefProvider.setWatchPolicyRoot(true);
+        omiDefProvider.start();
+        try {
+            final List<OmiTrapDef> netappTrapDefs = omiDefProvider.getTrapDefs();
+            final OmiTrapDef netappLinkUp = findTrap(netappTrapDefs, ".1.3.6.1.4.1.789", 3, null);
+            assertThat(netappLinkUp, notNullValue());
+
+            // Add a second policy file
+            final File tandbergPolicyData = new File(temporaryFolder.getRoot(), "tandberg_test_policy_data");
+            try (InputStream is = Resources.getResource("tandberg_test_policy_data").openStream()) {
+                Files.copy(is, tandbergPolicyData.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            List<OmiTrapDef> trapDefs = changes.poll(30, TimeUnit.SECONDS);
+            assertThat(trapDefs, notNullValue());
+            assertThat(trapDefs, hasSize(greaterThanOrEqualTo(netappTrapDefs.size() + 26)));
+            // The unchanged file should not have been parsed again
+            assertThat(findTrap(trapDefs, ".1.3.6.1.4.1.789", 3, null) == netappLinkUp, equalTo(true));
+
+            // Touching a file without changing its content should not trigger a change
+            assertThat(netappPolicyData.setLastModified(netappPolicyData.lastModified() + 60000), equalTo(true));
+            assertThat(changes.poll(2, TimeUnit.SECONDS), nullValue());
+
+            // Remove it again
+            Files.delete(tandbergPolicyData.toPath());
+            trapDefs = changes.poll(30, TimeUnit.SECONDS);
+            assertThat(trapDefs, notNullValue());
+            assertThat(trapDefs, hasSize(equalTo(netappTrapDefs.size())));
+        } finally {
+            omiDefProvider.stop();
+        }
+    }
+
+    @Test
+    public void canLoadDefinitionsFromCache() throws IOException {
+        final File policyRoot = temporaryFolder.newFolder("policies");
+        final File cacheDir = temporaryFolder.newFolder("cache");
+        for (String policyName : new String[] { "tandberg_test_policy_data", "teamquest_test_policy_data" }) {
+            try (InputStream is = Resources.getResource(policyName).openStream()) {
+                Files.copy(is, new File(policyRoot, policyName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        // The first pass parses the files and populates the cache
+        final List<OmiTrapDef> parsedTrapDefs = new DefaultOmiDefinitionProvider(policyRoot, "", 1, cacheDir).getTrapDefs();
+        final File[] cacheEntries = cacheDir.listFiles();
+        assertThat(cacheEntries, notNullValue());
+        assertThat(cacheEntries.length, equalTo(2));
+
+        // The second pass should produce the same definitions from the cache, with the current catch-all settings
+        final List<OmiTrapDef> cachedTrapDefs = new DefaultOmiDefinitionProvider(policyRoot, "tandberg_test_policy_data", 1, cacheDir).getTrapDefs();
+        assertThat(cachedTrapDefs, hasSize(equalTo(parsedTrapDefs.size())));
+        for (int i = 0; i < parsedTrapDefs.size(); i++) {
+            final OmiTrapDef parsedTrapDef = parsedTrapDefs.get(i);
+            final OmiTrapDef cachedTrapDef = cachedTrapDefs.get(i);
+            assertThat(cachedTrapDef == parsedTrapDef, equalTo(false));
+            assertThat(cachedTrapDef.toString(), equalTo(parsedTrapDef.toString()));
+            assertThat(cachedTrapDef.getHelpText(), equalTo(parsedTrapDef.getHelpText()));
+            assertThat(cachedTrapDef.getMsgKey(), equalTo(parsedTrapDef.getMsgKey()));
+            assertThat(cachedTrapDef.getMsgKeyRelation(), equalTo(parsedTrapDef.getMsgKeyRelation()));
+            assertThat(cachedTrapDef.isServerLogOnly(), equalTo(parsedTrapDef.isServerLogOnly()));
+        }
+        assertThat(findTrap(cachedTrapDefs, ".1.3.6.1.4.1.5596.110.6.1", 6, 7, Arrays.asList(new VarbindConstraint(7, "0"))).isCatchAll(), equalTo(true));
+
+        // Entries for content that is no longer around get cleaned up
+        Files.delete(new File(policyRoot, "teamquest_test_policy_data").toPath());
+        new DefaultOmiDefinitionProvider(policyRoot, "", 1, cacheDir);
+        assertThat(cacheDir.listFiles().length, equalTo(1));
+    }
+
+    @Test
+    public void canLookUpCandidatesInTrapDefIndex() throws IOException {
+        for (String policyFile : Arrays.asList("netapp_test_policy_data", "netapp_catchall_data", "teamquest_test_policy_data")) {
+            try (InputStream is = Resources.getResource(policyFile.replace("catchall", "test_policy")).openStream()) {
+                Files.copy(is, temporaryFolder.getRoot().toPath().resolve(policyFile), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        final OmiDefinitionProvider provider = new DefaultOmiDefinitionProvider(temporaryFolder.getRoot(), "netapp_catchall_data");
+        final TrapDefIndex index = provider.getTrapDefIndex();
+        assertThat(provider.getTrapDefIndex() == index, equalTo(true));
+
+        // The teamquest policy suppresses on a varbind alone, for any trap. Suppressions come
+        // first, and catch-all definitions sit in their own tier after the others.
+        List<OmiTrapDef> candidates = index.getCandidates(".1.3.6.1.4.1.789", 3, 0);
+        assertThat(candidates, hasSize(3));
+        assertThat(candidates.get(0).getMatchType(), equalTo(MatchType.SUPP_MATCH));
+        assertThat(candidates.get(0).getEnterpriseId(), nullValue());
+        assertThat(candidates.get(1).getLabel(), equalTo("NetApp_Link_Up"));
+        assertThat(candidates.get(1).isCatchAll(), equalTo(false));
+        assertThat(candidates.get(2).getLabel(), equalTo("NetApp_Link_Up"));
+        assertThat(candidates.get(2).isCatchAll(), equalTo(true));
+        assertThat(index.getCandidates("1.3.6.1.4.1.789", 3, 0), equalTo(candidates));
+
+        // Definitions without a specific match any specific
+        candidates = index.getCandidates(".1.3.6.1.4.1.789", 4, 42);
+        assertThat(candidates, hasSize(3));
+        assertThat(candidates.get(0).getLabel(), equalTo("NetApp_Authentification"));
+
+        // Trap OIDs are decomposed the way trapd does it
+        candidates = index.getCandidates(".1.3.6.1.4.1.5596.110.6.1.0.7");
+        assertThat(candidates.isEmpty(), equalTo(false));
+        assertThat(candidates, equalTo(index.getCandidates(".1.3.6.1.4.1.5596.110.6.1", 6, 7)));
+        for (OmiTrapDef candidate : candidates) {
+            assertThat(candidate.getEnterpriseId() == null || candidate.getEnterpriseId().equals(".1.3.6.1.4.1.5596.110.6.1"), equalTo(true));
+        }
+
+        assertThat(index.getCandidates(".1.3.6.1.4.1.99999", 6, 1), hasSize(1));
+    }
 
     private static OmiTrapDef findTrap(List<OmiTrapDef> trapDefs, String enterpriseId, Integer generic, Integer specific) {
         return findTrap(trapDefs, enterpriseId, generic, specific, null);
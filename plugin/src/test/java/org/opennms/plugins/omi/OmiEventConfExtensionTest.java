@@ -33,6 +33,7 @@ import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.opennms.plugins.omi.OmiEventConfExtension.UEI_PREFIX;
 
@@ -644,6 +645,24 @@ public class OmiEventConfExtensionTest {
         assertThat(logMessage.getContent(), equalTo("Critical:High_Disk_Response %parm[message]%"));
         assertThat(logMessage.getDestination(), equalTo(LogMsgDestType.LOGNDISPLAY));
     }
+
+    @Test
+    public void canDropRedundantTeamQuestRules() throws IOException {
+        final File policyData = temporaryFolder.newFile("teamquest_test_policy_data");
+        try (InputStream is = Resources.getResource("teamquest_test_policy_data").openStream()) {
+            Files.copy(is, policyData.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        OmiDefinitionProvider omiDefProvider = new DefaultOmiDefinitionProvider(temporaryFolder.getRoot(), "");
+        OmiEventConfExtension omiEventConfExtension = new OmiEventConfExtension(omiDefProvider);
+        omiEventConfExtension.setDropRedundantRules(true);
+
+        // TeamQuest_Event_Major has the same mask as the earlier TeamQuest_Event_Major_RBAC1, and can be left out
+        final List<EventDefinition> eventDefs = omiEventConfExtension.getEventDefinitions();
+        assertThat(eventDefs, hasSize(equalTo(103)));
+        assertThat(findEvent(eventDefs, UEI_PREFIX + "TeamQuest_Event_Major"), nullValue());
+        assertThat(findEvent(eventDefs, UEI_PREFIX + "TeamQuest_Event_Major_RBAC1"), notNullValue());
+    }
     
     @Test
     public void canSetPriorityOnCatchAllEvents() throws IOException {
@@ -725,7 +744,38 @@ public class OmiEventConfExtensionTest {
         assertThat(OmiEventConfExtension.translateOmiPatternToRegex(omiPattern),
                    equalTo("^(?<message>(.*?Common/rbac.*?))$"));
     }
+
+    @Test
+    public void canReplaceNegatedActionGroups() throws Exception {
+        // Text following the negation must survive
+        String omiPattern = "^<![Warning]><@.level> on <*.host_name>$";
+        assertThat(OmiEventConfExtension.translateOmiPatternToRegex(omiPattern),
+                   equalTo("^(?!(Warning))(?<level>\\S+?) on (?<hostName>.*?)$"));
+
+        // Several assign-only groups in one pattern stay separate
+        omiPattern = "<[up|down].state> and <[<@>|none].peer>";
+        assertThat(OmiEventConfExtension.translateOmiPatternToRegex(omiPattern),
+                   equalTo(".*?(?<state>(up|down)) and (?<peer>(\\S+?|none)).*"));
+
+        // Things that are not action groups are left alone
+        omiPattern = "a <b> [] <4> <*.x";
+        assertThat(OmiEventConfExtension.translateOmiPatternToRegex(omiPattern),
+                   equalTo(".*?a <b> [] <4> <*.x.*"));
+    }
     
+    @Test
+    public void canTranslateVarbindValues() throws Exception {
+        assertThat(OmiEventConfExtension.toVarbindValue("^42$"), equalTo("42"));
+        assertThat(OmiEventConfExtension.toVarbindValue("42"), equalTo("42"));
+        assertThat(OmiEventConfExtension.toVarbindValue("Link entered high load."), equalTo("~.*Link entered high load..*"));
+        assertThat(OmiEventConfExtension.toVarbindValue("opener <4*.stuff> closer"), equalTo("~.*?opener (?<stuff>.{4}) closer.*"));
+        assertThat(OmiEventConfExtension.toVarbindValue("^/<*>/[<*.source>%<@>|<*.source>]$"), startsWith(OmiEventConfExtension.BROKEN_VARBIND_VALUE_PREFIX));
+
+        // Translations are memoized
+        final String pattern = "Did <4*.stuff> with <8@.thing>";
+        assertThat(OmiEventConfExtension.toVarbindValue(pattern) == OmiEventConfExtension.toVarbindValue(pattern), equalTo(true));
+    }
+
     @Test
     public void canAdaptVarNamesToRegex() throws Exception {
         String omiVar = "host_name";
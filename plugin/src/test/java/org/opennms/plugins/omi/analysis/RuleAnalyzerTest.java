@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.analysis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.opennms.plugins.omi.match.TestTrapDefs.trapDef;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.plugins.omi.OmiEventConfExtension;
+import org.opennms.plugins.omi.analysis.RuleAnalyzer.Finding;
+import org.opennms.plugins.omi.analysis.RuleAnalyzer.FindingType;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+
+public class RuleAnalyzerTest {
+
+    @Test
+    public void canFindRedundantRules() {
+        final OmiTrapDef disk = trapDef("Disk", MatchType.MSG_MATCH, ".1.3.6.1.4.1.1", 6, 1, new VarbindConstraint(2, "<*>disk<*>"));
+        final OmiTrapDef diskAgain = trapDef("DiskAgain", MatchType.MSG_MATCH, "1.3.6.1.4.1.1", 6, 1, new VarbindConstraint(2, "<*>disk<*>"));
+        // Needs "disk" in varbind 2 and something in varbind 3, so every trap it matches was taken by Disk
+        final OmiTrapDef diskFull = trapDef("DiskFull", MatchType.MSG_MATCH, ".1.3.6.1.4.1.1", 6, 1,
+                new VarbindConstraint(2, "<*>disk<*>"), new VarbindConstraint(3, "full"));
+        // Disk does not accept all of "disk" or "memory"
+        final OmiTrapDef diskOrMemory = trapDef("DiskOrMemory", MatchType.MSG_MATCH, ".1.3.6.1.4.1.1", 6, 1,
+                new VarbindConstraint(2, Arrays.asList("<*>disk<*>", "<*>memory<*>")));
+        // Suppressions are a tier of their own
+        final OmiTrapDef suppressDisk = trapDef("SuppressDisk", MatchType.SUPP_MATCH, ".1.3.6.1.4.1.1", 6, 1, new VarbindConstraint(2, "<*>disk<*>"));
+        final OmiTrapDef broken = trapDef("Broken", MatchType.MSG_MATCH, ".1.3.6.1.4.1.1", 6, 2, new VarbindConstraint(1, "[unbalanced"));
+        final OmiTrapDef anySpecific = trapDef("AnySpecific", MatchType.MSG_MATCH, ".1.3.6.1.4.1.2", 6, null);
+        final OmiTrapDef specific = trapDef("Specific", MatchType.MSG_MATCH, ".1.3.6.1.4.1.2", 6, 5, new VarbindConstraint(1, "up"));
+        assertThat(OmiEventConfExtension.toVarbindValue("[unbalanced").startsWith(OmiEventConfExtension.BROKEN_VARBIND_VALUE_PREFIX), equalTo(true));
+
+        final List<Finding> findings = RuleAnalyzer.analyze(Arrays.asList(disk, diskAgain, diskFull, diskOrMemory, suppressDisk, broken, anySpecific, specific));
+        assertThat(findings.stream().map(f -> f.getTrapDef().getLabel() + ":" + f.getType()).collect(Collectors.toList()), equalTo(Arrays.asList(
+                "DiskAgain:" + FindingType.DUPLICATE, "DiskFull:" + FindingType.SHADOWED, "Broken:" + FindingType.NEVER_MATCHES, "Specific:" + FindingType.SHADOWED)));
+        assertThat(findings.get(0).getCoveredBy(), equalTo(disk));
+        assertThat(findings.get(3).getCoveredBy(), equalTo(anySpecific));
+        assertThat(RuleAnalyzer.getRedundantTrapDefs(findings).size(), equalTo(4));
+
+        // A rule is never reported as covered by a later one
+        assertThat(RuleAnalyzer.analyze(Arrays.asList(specific, anySpecific)).size(), equalTo(0));
+    }
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.eventconf;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.config.events.EventDefinition;
+import org.opennms.integration.api.v1.config.events.LogMsgDestType;
+import org.opennms.integration.api.v1.model.Severity;
+
+public class EventDefinitionPoolTest {
+
+    @Test
+    public void canShareEqualParts() {
+        final AtomicInteger decorations = new AtomicInteger();
+        final EventDefinitionPool pool = new EventDefinitionPool(helpText -> {
+            decorations.incrementAndGet();
+            return "<p>" + helpText + "</p>";
+        });
+
+        final EventDefinition a = eventDefinition(pool, "A");
+        final EventDefinition b = eventDefinition(pool, "B");
+        assertThat(b.getUei(), equalTo("uei.opennms.org/omi/B"));
+        assertThat(b.getMask(), sameInstance(a.getMask()));
+        assertThat(b.getMask().getVarbinds().get(0), sameInstance(a.getMask().getVarbinds().get(0)));
+        assertThat(b.getParameters(), sameInstance(a.getParameters()));
+        assertThat(b.getLogMessage(), sameInstance(a.getLogMessage()));
+        assertThat(b.getAlarmData(), sameInstance(a.getAlarmData()));
+
+        // The help text is decorated once, when first asked for
+        assertThat(decorations.get(), equalTo(0));
+        assertThat(a.getOperatorInstructions(), equalTo("<p>Call the storage team</p>"));
+        assertThat(b.getOperatorInstructions(), sameInstance(a.getOperatorInstructions()));
+        assertThat(decorations.get(), equalTo(1));
+    }
+
+    private static EventDefinition eventDefinition(EventDefinitionPool pool, String label) {
+        return pool.eventDefinition(1000, "uei.opennms.org/omi/" + label, label, Severity.MAJOR,
+                pool.logMessage("Disk " + "alarm", LogMsgDestType.LOGNDISPLAY),
+                pool.alarmData("%uei%:%dpname%:%nodeid%"),
+                pool.mask(Arrays.asList(pool.maskElement("id", ".1.3.6.1.4.1.1"), pool.maskElement("generic", "6")),
+                        Collections.singletonList(pool.varbind(1, Arrays.asList("~.*disk.*", "~.*volume.*")))),
+                pool.parameters(Collections.singletonList(pool.parameter("MsgGrp", "Storage", false))),
+                "Call the storage team");
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.opennms.plugins.omi.match.TestTrapDefs.trapDef;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+
+public class ConditionMergerTest {
+
+    @Test
+    public void canMergeEquivalentConditions() {
+        final OmiTrapDef disk = alert("Disk", ".1.3.6.1.4.1.1", "Resource alert", new VarbindConstraint(1, "ALERT"), new VarbindConstraint(2, "disk"));
+        final OmiTrapDef other = alert("Other", ".1.3.6.1.4.1.2", "Resource alert", new VarbindConstraint(2, "cpu"));
+        final OmiTrapDef memory = alert("Memory", "1.3.6.1.4.1.1", "Resource alert", new VarbindConstraint(1, "ALERT"), new VarbindConstraint(2, "memory"));
+        // Differs in two varbinds
+        final OmiTrapDef swap = alert("Swap", ".1.3.6.1.4.1.1", "Resource alert", new VarbindConstraint(1, "WARNING"), new VarbindConstraint(2, "swap"));
+        // Would be merged, but may not move ahead of Swap
+        final OmiTrapDef cpu = alert("Cpu", ".1.3.6.1.4.1.1", "Resource alert", new VarbindConstraint(1, "ALERT"), new VarbindConstraint(2, "cpu"));
+        // Has a different text, or assigns a user variable
+        final OmiTrapDef fan = alert("Fan", ".1.3.6.1.4.1.1", "Fan alert", new VarbindConstraint(1, "ALERT"), new VarbindConstraint(2, "fan"));
+        final OmiTrapDef power = alert("Power", ".1.3.6.1.4.1.1", "Resource alert", new VarbindConstraint(1, "ALERT"), new VarbindConstraint(2, "<*.psu> power"));
+
+        final List<OmiTrapDef> merged = ConditionMerger.merge(Arrays.asList(disk, other, memory, swap, cpu, fan, power));
+        assertThat(merged.stream().map(OmiTrapDef::getLabel).collect(Collectors.toList()), equalTo(Arrays.asList("Disk", "Other", "Swap", "Cpu", "Fan", "Power")));
+        assertThat(merged.get(0).getVarbindConstraints(), equalTo(Arrays.asList(new VarbindConstraint(1, "ALERT"), new VarbindConstraint(2, Arrays.asList("disk", "memory")))));
+        assertThat(merged.get(3), equalTo(cpu));
+
+        // The given definitions are left alone
+        assertThat(disk.getVarbindConstraints().get(1), equalTo(new VarbindConstraint(2, "disk")));
+    }
+
+    private static OmiTrapDef alert(String label, String enterpriseId, String text, VarbindConstraint... constraints) {
+        final OmiTrapDef trapDef = trapDef(label, MatchType.MSG_MATCH, enterpriseId, 6, 1, constraints);
+        trapDef.setSeverity("Major");
+        trapDef.setText(text);
+        return trapDef;
+    }
+}
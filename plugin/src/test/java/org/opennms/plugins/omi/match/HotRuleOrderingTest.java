@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.opennms.plugins.omi.match.TestTrapDefs.trapDef;
+import static org.opennms.plugins.omi.match.TestTrapDefs.v1Trap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+public class HotRuleOrderingTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canMoveHotRulesForward() throws IOException {
+        final OmiTrapDef a = trapDef("A", MatchType.MSG_MATCH, ".1.3.6.1.4.1.1", 6, 1);
+        final OmiTrapDef wildcard = trapDef("Wildcard", MatchType.MSG_MATCH, null, 6, null);
+        final OmiTrapDef b = trapDef("B", MatchType.MSG_MATCH, ".1.3.6.1.4.1.2", 6, 1);
+        final OmiTrapDef c = trapDef("C", MatchType.MSG_MATCH, ".1.3.6.1.4.1.2", 6, 2);
+        final List<OmiTrapDef> tier = Arrays.asList(a, wildcard, b, c);
+
+        // Match C ten times and B five times, without the wildcard that would match them all
+        final OmiMatchStatistics statistics = new OmiMatchStatistics();
+        final OmiTrapMatcher matcher = new OmiTrapMatcher(new TrapDefIndex(Arrays.asList(a, b, c)), statistics);
+        for (int i = 0; i < 10; i++) {
+            matcher.match(v1Trap(".1.3.6.1.4.1.2", 6, 2));
+        }
+        for (int i = 0; i < 5; i++) {
+            matcher.match(v1Trap(".1.3.6.1.4.1.2", 6, 1));
+        }
+
+        // Neither may pass the wildcard, and B stays behind the hotter C
+        assertThat(labels(HotRuleOrdering.reorder(tier, statistics::getHits)), equalTo(Arrays.asList("A", "Wildcard", "C", "B")));
+        // Without it, C goes to the front
+        assertThat(labels(HotRuleOrdering.reorder(Arrays.asList(a, b, c), statistics::getHits)), equalTo(Arrays.asList("C", "B", "A")));
+
+        // The hit counts survive a round trip through a profile
+        final File profileFile = temporaryFolder.newFile();
+        RuleHitProfile.save(statistics, profileFile);
+        final RuleHitProfile profile = RuleHitProfile.load(profileFile);
+        assertThat(profile.size(), equalTo(2));
+        assertThat(profile.getHits(trapDef("C", MatchType.MSG_MATCH, ".1.3.6.1.4.1.2", 6, 2)), equalTo(10L));
+        assertThat(labels(HotRuleOrdering.reorder(tier, profile::getHits)), equalTo(Arrays.asList("A", "Wildcard", "C", "B")));
+    }
+
+    private static List<String> labels(List<OmiTrapDef> trapDefs) {
+        return trapDefs.stream().map(OmiTrapDef::getLabel).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.opennms.plugins.omi.match.TestTrapDefs.v1Trap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.omi.DefaultOmiDefinitionProvider;
+import org.opennms.plugins.omi.OmiDefinitionListener;
+import org.opennms.plugins.omi.OmiDefinitionProvider;
+import org.opennms.plugins.omi.OmiPatternCompiler;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.VariableBinding;
+
+import com.google.common.io.Resources;
+
+public class OmiTrapMatcherTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private List<OmiTrapDef> trapDefs;
+    private OmiTrapMatcher matcher;
+
+    @Before
+    public void setUp() throws IOException {
+        for (String policy : Arrays.asList("netapp", "netiq")) {
+            final File policyData = temporaryFolder.newFile(policy + "_test_policy_data");
+            try (InputStream is = Resources.getResource(policy + "_test_policy_data").openStream()) {
+                Files.copy(is, policyData.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        trapDefs = new DefaultOmiDefinitionProvider(temporaryFolder.getRoot(), "").getTrapDefs();
+        matcher = new OmiTrapMatcher(trapDefs);
+    }
+
+    @Test
+    public void canMatchOnEnterpriseGenericAndSpecific() {
+        OmiTrapDef trapDef = matcher.match(v1Trap(".1.3.6.1.4.1.789", 3, 0));
+        assertThat(trapDef, notNullValue());
+        assertThat(trapDef.getLabel(), equalTo("NetApp_Link_Up"));
+
+        // Suppressions are tried before messages
+        trapDef = matcher.match(v1Trap(".1.3.6.1.4.1.789", 4, 0));
+        assertThat(trapDef, notNullValue());
+        assertThat(trapDef.getMatchType(), equalTo(MatchType.SUPP_MATCH));
+
+        // Standard SNMPv2 traps take their enterprise from snmpTrapEnterprise
+        final PDU v2Trap = new PDU();
+        v2Trap.setType(PDU.TRAP);
+        v2Trap.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(1L)));
+        v2Trap.add(new VariableBinding(SnmpConstants.snmpTrapOID, SnmpConstants.linkUp));
+        v2Trap.add(new VariableBinding(SnmpConstants.snmpTrapEnterprise, new OID(".1.3.6.1.4.1.789")));
+        trapDef = matcher.match(v2Trap);
+        assertThat(trapDef, notNullValue());
+        assertThat(trapDef.getLabel(), equalTo("NetApp_Link_Up"));
+
+        assertThat(matcher.match(v1Trap(".1.3.6.1.4.1.99999", 6, 1)), nullValue());
+    }
+
+    @Test
+    public void canMatchOnVarbinds() {
+        final PDUv1 trap = v1Trap(".1.3.6.1.4.1.1691.2", 6, 1);
+        for (int i = 1; i <= 8; i++) {
+            trap.add(new VariableBinding(new OID(".1.3.6.1.4.1.1691.2.1." + i), new OctetString("value " + i)));
+        }
+        trap.set(6, new VariableBinding(new OID(".1.3.6.1.4.1.1691.2.1.7"), new OctetString("System Name:pbx01")));
+        OmiTrapDef trapDef = matcher.match(trap);
+        assertThat(trapDef, notNullValue());
+        assertThat(trapDef.getLabel(), equalTo("NetIQ7_Critical_pbxmaintserver_System_Name"));
+
+        // The next definition has no varbind constraints, and shadows all later ones for this trap
+        trap.set(6, new VariableBinding(new OID(".1.3.6.1.4.1.1691.2.1.7"), new OctetString("System Name:")));
+        trap.set(7, new VariableBinding(new OID(".1.3.6.1.4.1.1691.2.1.8"), new OctetString("Measureware")));
+        trapDef = matcher.match(trap);
+        assertThat(trapDef, notNullValue());
+        assertThat(trapDef.getLabel(), equalTo("NetIQ7_Critical_pbxmaintserver"));
+    }
+
+    @Test
+    public void canPrefilterOnRequiredLiterals() {
+        assertThat(OmiPatternCompiler.requiredLiterals("<*>mail volume<*>exceeds threshold"), equalTo(Arrays.asList("mail volume", "exceeds threshold")));
+        assertThat(OmiPatternCompiler.requiredLiterals("^Critical:<*>Disk.Alarm$"), equalTo(Arrays.asList("Critical:", "Disk", "Alarm")));
+        // Literals inside groups are optional, and a top-level '|' makes everything optional
+        assertThat(OmiPatternCompiler.requiredLiterals("<[TeamQuest|Measureware].service> down"), equalTo(Arrays.asList(" down")));
+        assertThat(OmiPatternCompiler.requiredLiterals("foo|bar"), equalTo(Collections.emptyList()));
+
+        final AhoCorasick prefilter = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+        assertThat(prefilter.search("ushers").toString(), equalTo("{0, 1, 3}"));
+        assertThat(prefilter.search("this").toString(), equalTo("{2}"));
+        assertThat(prefilter.search("nothing").isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void canRecordStatistics() {
+        final OmiMatchStatistics statistics = new OmiMatchStatistics();
+        final OmiTrapMatcher matcher = new OmiTrapMatcher(new TrapDefIndex(trapDefs), statistics);
+        matcher.match(v1Trap(".1.3.6.1.4.1.789", 3, 0));
+        matcher.match(v1Trap(".1.3.6.1.4.1.789", 3, 0));
+        matcher.match(v1Trap(".1.3.6.1.4.1.789", 4, 0));
+        matcher.match(v1Trap(".1.3.6.1.4.1.99999", 6, 1));
+
+        // The first NetIQ definition requires "System Name:<@.source>" in varbind 7
+        final PDUv1 trap = v1Trap(".1.3.6.1.4.1.1691.2", 6, 1);
+        for (int i = 1; i <= 8; i++) {
+            trap.add(new VariableBinding(new OID(".1.3.6.1.4.1.1691.2.1." + i), new OctetString("System Name:")));
+        }
+        assertThat(matcher.match(trap).getLabel(), equalTo("NetIQ7_Critical_pbxmaintserver"));
+
+        assertThat(statistics.getTrapCount(), equalTo(5L));
+        assertThat(statistics.getUnmatchedCount(), equalTo(1L));
+        assertThat(statistics.getMessageMatchedCount(), equalTo(3L));
+        assertThat(statistics.getSuppressMatchedCount(), equalTo(1L));
+
+        final List<OmiMatchStatistics.RuleStatistics> byHits = statistics.getRuleStatistics(OmiMatchStatistics.RuleStatistics.BY_HITS, 1);
+        assertThat(byHits.get(0).getTrapDef().getLabel(), equalTo("NetApp_Link_Up"));
+        assertThat(byHits.get(0).getHits(), equalTo(2L));
+        final OmiMatchStatistics.RuleStatistics nearMiss = statistics.getRuleStatistics(OmiMatchStatistics.RuleStatistics.BY_NEAR_MISSES, Integer.MAX_VALUE).stream()
+                .filter(s -> "NetIQ7_Critical_pbxmaintserver_System_Name".equals(s.getTrapDef().getLabel()))
+                .findFirst().get();
+        assertThat(nearMiss.getHits(), equalTo(0L));
+        assertThat(nearMiss.getNearMisses(), equalTo(1L));
+        assertThat(nearMiss.getRegexNanos() > 0, equalTo(true));
+
+        statistics.reset();
+        assertThat(statistics.getTrapCount(), equalTo(0L));
+        assertThat(statistics.topRulesByHits(10).length, equalTo(0));
+    }
+
+    @Test
+    public void canDropStatisticsOfRemovedDefinitions() {
+        final List<OmiDefinitionListener> listeners = new ArrayList<>();
+        final List<OmiTrapDef> currentTrapDefs = new ArrayList<>(trapDefs);
+        final OmiDefinitionProvider provider = new OmiDefinitionProvider() {
+            @Override
+            public List<OmiTrapDef> getTrapDefs() {
+                return currentTrapDefs;
+            }
+
+            @Override
+            public void addListener(OmiDefinitionListener listener) {
+                listeners.add(listener);
+            }
+        };
+        final OmiMatchStatistics statistics = new OmiMatchStatistics(provider);
+        final OmiTrapMatcher matcher = new OmiTrapMatcher(new TrapDefIndex(trapDefs), statistics);
+        final OmiTrapDef linkUp = matcher.match(v1Trap(".1.3.6.1.4.1.789", 3, 0));
+        final OmiTrapDef authentication = matcher.match(v1Trap(".1.3.6.1.4.1.789", 4, 0));
+
+        // Reload the policies without the link up definition
+        currentTrapDefs.remove(linkUp);
+        listeners.forEach(listener -> listener.onDefinitionsChanged(provider));
+        assertThat(statistics.getHits(linkUp), equalTo(0L));
+        assertThat(statistics.getHits(authentication), equalTo(1L));
+        // The totals still cover every trap
+        assertThat(statistics.getTrapCount(), equalTo(2L));
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import java.util.Arrays;
+
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+import org.opennms.plugins.omi.model.VarbindConstraint;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.smi.OID;
+
+/**
+ * Factories for the trap definitions and traps used by the rule tests.
+ */
+public final class TestTrapDefs {
+
+    private TestTrapDefs() {
+    }
+
+    public static OmiTrapDef trapDef(String label, MatchType matchType, String enterpriseId, Integer generic, Integer specific, VarbindConstraint... constraints) {
+        final OmiTrapDef trapDef = new OmiTrapDef();
+        trapDef.setMatchType(matchType);
+        trapDef.setLabel(label);
+        trapDef.setEnterpriseId(enterpriseId);
+        trapDef.setGeneric(generic);
+        trapDef.setSpecific(specific);
+        trapDef.addVarbindConstraints(Arrays.asList(constraints));
+        return trapDef;
+    }
+
+    public static PDUv1 v1Trap(String enterprise, int generic, int specific) {
+        final PDUv1 trap = new PDUv1();
+        trap.setType(PDU.V1TRAP);
+        trap.setEnterprise(new OID(enterprise));
+        trap.setGenericTrap(generic);
+        trap.setSpecificTrap(specific);
+        return trap;
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.omi.match;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.nnmi.TrapLogReplayer;
+import org.opennms.plugins.omi.DefaultOmiDefinitionProvider;
+import org.opennms.plugins.omi.model.MatchType;
+import org.opennms.plugins.omi.model.OmiTrapDef;
+
+import com.google.common.io.Resources;
+
+public class TrapLogEvaluatorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canEvaluateTrapLog() throws IOException {
+        final OmiTrapMatcher matcher = netAppMatcher(policy -> policy);
+        final List<TrapLogEvaluator.Outcome> outcomes = new ArrayList<>();
+        final TrapLogEvaluator.Report report = new TrapLogEvaluator(matcher, 3).evaluate(new TrapLogReplayer(writeTrapLog()), 2, outcomes::add);
+
+        assertThat(report.getTrapCount(), equalTo(6000L));
+        assertThat(report.getDecidedCount(MatchType.MSG_MATCH), equalTo(1500L));
+        assertThat(report.getSuppressedCount(), equalTo(1500L));
+        assertThat(report.getUnmatchedCount(), equalTo(3000L));
+        // Both rules were hit 1500 times, and are ordered by label
+        final List<Map.Entry<OmiTrapDef, Long>> topRules = report.getTopRules(2);
+        assertThat(topRules.get(0).getKey().getLabel(), equalTo("NetApp_Authentification"));
+        assertThat(topRules.get(1).getKey().getLabel(), equalTo("NetApp_Link_Up"));
+        assertThat(topRules.get(1).getValue(), equalTo(1500L));
+        assertThat(report.getTopUnmatched(2).get(0).getValue(), equalTo(1500L));
+        assertThat(report.getRulesHitCount(), equalTo(2));
+
+        // The outcomes are handed over in the order of the log
+        assertThat(outcomes.size(), equalTo(6000));
+        for (int i = 0; i < outcomes.size(); i++) {
+            assertThat(outcomes.get(i).getSequence(), equalTo((long)i));
+        }
+        assertThat(outcomes.get(4).getTrapDef().getLabel(), equalTo("NetApp_Link_Up"));
+        assertThat(report.getHits(outcomes.get(4).getTrapDef()), equalTo(1500L));
+        assertThat(outcomes.get(5).isSuppressed(), equalTo(true));
+        assertThat(outcomes.get(6).isMatched(), equalTo(false));
+        assertThat(report.getChangedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void canCompareWithBaseline() throws IOException {
+        final OmiTrapMatcher matcher = netAppMatcher(policy -> policy);
+        // Before the change, link up was a warning and nothing suppressed the authentication failures
+        final OmiTrapMatcher baseline = netAppMatcher(policy -> policy.replaceFirst("SEVERITY Normal", "SEVERITY Warning").replace("$G 4", "$G 5"));
+
+        final List<TrapLogEvaluator.Outcome> changed = new ArrayList<>();
+        final TrapLogEvaluator.Report report = new TrapLogEvaluator(matcher, baseline, 3).evaluate(new TrapLogReplayer(writeTrapLog()), 1, outcome -> {
+            if (outcome.isChanged()) {
+                changed.add(outcome);
+            }
+        });
+
+        assertThat(report.getTrapCount(), equalTo(6000L));
+        assertThat(report.getChangedCount(), equalTo(3000L));
+        assertThat(changed.size(), equalTo(3000));
+        assertThat(changed.get(0).getBaselineTrapDef().getSeverity(), equalTo("Warning"));
+        assertThat(changed.get(0).getTrapDef().getSeverity(), equalTo("Normal"));
+        assertThat(changed.get(1).getBaselineTrapDef(), equalTo(null));
+        assertThat(changed.get(1).isSuppressed(), equalTo(true));
+        assertThat(report.getTopChanges(2).get(1).getValue(), equalTo(1500L));
+    }
+
+    @Test
+    public void canDetectChangedHelpTextAndPriority() {
+        final OmiTrapDef before = new OmiTrapDef();
+        before.setMatchType(MatchType.MSG_MATCH);
+        before.setLabel("NetApp_Link_Up");
+        before.setHelpText("Check the cabling.");
+        final OmiTrapDef after = new OmiTrapDef();
+        after.setMatchType(MatchType.MSG_MATCH);
+        after.setLabel("NetApp_Link_Up");
+        after.setHelpText("Check the cabling.");
+        assertThat(TrapLogEvaluator.isSameOutcome(before, after), equalTo(true));
+
+        after.setHelpText("Check the switch.");
+        assertThat(TrapLogEvaluator.isSameOutcome(before, after), equalTo(false));
+
+        // Catch-all definitions get a lower priority
+        after.setHelpText("Check the cabling.");
+        after.setCatchAll(true);
+        assertThat(TrapLogEvaluator.isSameOutcome(before, after), equalTo(false));
+    }
+
+    private OmiTrapMatcher netAppMatcher(UnaryOperator<String> edit) throws IOException {
+        final File policyRoot = temporaryFolder.newFolder();
+        final String policy = Resources.toString(Resources.getResource("netapp_test_policy_data"), StandardCharsets.UTF_8);
+        Files.write(new File(policyRoot, "netapp_test_policy_data").toPath(), edit.apply(policy).getBytes(StandardCharsets.UTF_8));
+        return new OmiTrapMatcher(new DefaultOmiDefinitionProvider(policyRoot, "").getTrapDefIndex());
+    }
+
+    // A NetApp link up, a NetApp authentication failure, and the two sample traps that match nothing
+    private File writeTrapLog() throws IOException {
+        final String nnmiTraps = Resources.toString(Resources.getResource("nnmi_traps"), StandardCharsets.UTF_8);
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 1500; i++) {
+            log.append(netAppTrap(3)).append(netAppTrap(4)).append(nnmiTraps).append('\n');
+        }
+        final File trapLog = temporaryFolder.newFile();
+        Files.write(trapLog.toPath(), log.toString().getBytes(StandardCharsets.UTF_8));
+        return trapLog;
+    }
+
+    private static String netAppTrap(int generic) {
+        // The log gives standard traps their SNMPv2 trap OID
+        return "Trap netApp (.1.3.6.1.6.3.1.1.5." + (generic + 1) + ") at November 19, 2018 12:00:54 AM EST from filer\n" +
+                "Version: SNMPv1\n" +
+                "Enterprise OID: .1.3.6.1.4.1.789\n" +
+                "Agent address: 10.0.0.3\n" +
+                "Generic trap: " + generic + "\n" +
+                "Specific trap: 0\n" +
+                "Timeticks: 764234700\n" +
+                "Varbinds:\n" +
+                "state=HAS_VALUE type=INTEGER oid=.1.3.6.1.2.1.2.2.1.1.1 value=1\n";
+    }
+}